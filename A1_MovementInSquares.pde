@@ -1,27 +1,29 @@
 class ArtMovementInSquares extends Artwork
 {
+  PShape cylinder; //The cylinder mesh is built once, and only rotated into place each frame.
+  
   public ArtMovementInSquares(int x, int y, Direction dir)
   {
     super(x, y, dir);
-    flatImage = createMovementInSquaresImage();
+    cylinder = createCylinder();
     teleportX = 3;
     teleportY = 2;
     teleportDir = Direction.NORTH;
   }
 
-  PImage createMovementInSquaresImage()
+  PImage createFlatImage()
   {
-    PGraphics g = createGraphics(SZ,SZ, P3D);
+    PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ, P3D);
     g.beginDraw();
     g.camera(0,0,0,0,0,-HALF_SZ,0,1,0);
     g.noStroke();
     g.background(255);
     float f = 0.001 * HALF_PI;
-    float cameraZ = (height/2.0) / tan(f/2.0);
+    float cameraZ = HALF_SZ / tan(f/2.0);
     g.perspective(f, 1.0, cameraZ/10.0, cameraZ*200.0);
     float modZ = -(HALF_SZ / tan(f / 2) - HALF_SZ);
     g.translate(0, 0, modZ);
-    makeTwoCylinders(g);
+    makeTwoCylinders(g, 0); //The image is drawn once, and kept, so it always shows the cylinders before they have turned.
     g.endDraw();
     return g;
   }
@@ -39,14 +41,23 @@ class ArtMovementInSquares extends Artwork
   {
     g.translate(SZ * teleportX, 0, SZ * teleportY);
     g.rotateY(-teleportDir.getAngle());
-    makeTwoCylinders(g);
-    animateCounter++;  
+    makeTwoCylinders(g, -view.animation / 100);
   }
   
-  void makeTwoCylinders(PGraphics g)
+  int getImageVersion()
+  {
+    //Version 1 could be drawn with the cylinders turned to wherever the animation had got to.
+    return 2;
+  }
+  
+  boolean isDoubleSided()
+  {
+    //The cylinders have no ends, and stand in the cell ahead of the teleport position, so they can be seen from inside.
+    return true;
+  }
+  
+  void makeTwoCylinders(PGraphics g, float rotateAmount)
   {
-    float rotateAmount = -animateCounter / 100;
-    
     g.pushMatrix();
     g.translate(-HALF_SZ,0,-SZ);
     g.rotateY(-rotateAmount);
@@ -61,13 +72,22 @@ class ArtMovementInSquares extends Artwork
   
   void makeCylinder(PGraphics g)
   {
-    //A cylinder consists of rectangular segments.
+    g.shape(cylinder);
+  }
+  
+  PShape createCylinder()
+  {
+    //A cylinder consists of rectangular segments. These are all put into a single retained shape, with each rectangle's
+    //colour stored in its vertices.
     
     float SEGMENTS = 32; //How many segments there are around the cylinder
     float SEG_ANGLE = TWO_PI / SEGMENTS;
     float VSEGMENTS = 12; //How many segments there are vertically from floor to ceiling.
     float VSEG_DISTANCE = SZ / VSEGMENTS;
     
+    PShape s = createShape();
+    s.beginShape(QUADS);
+    s.noStroke();
     for(int n = 0; n < SEGMENTS; n++)
     {
       float x1 = cos(n * SEG_ANGLE) * HALF_SZ;
@@ -77,16 +97,16 @@ class ArtMovementInSquares extends Artwork
       
       for (int y = 0; y < VSEGMENTS; y++)
       {
-        g.fill(((y + n) % 2) * 255); //Rectangles alternate between black and white.
-        g.beginShape();
+        s.fill(((y + n) % 2) * 255); //Rectangles alternate between black and white.
         float yfrom = -HALF_SZ + y * VSEG_DISTANCE;
         float yto = yfrom + VSEG_DISTANCE;
-        g.vertex(x1, yfrom, z1);
-        g.vertex(x2, yfrom, z2);
-        g.vertex(x2, yto, z2);
-        g.vertex(x1, yto, z1);
-        g.endShape();
+        s.vertex(x1, yfrom, z1);
+        s.vertex(x1, yto, z1);
+        s.vertex(x2, yto, z2);
+        s.vertex(x2, yfrom, z2);
       }
     }
+    s.endShape();
+    return s;
   }
 }
@@ -7,15 +7,14 @@ class ArtIntake extends Artwork
   public ArtIntake(int x, int y, Direction dir)
   {
     super(x, y, dir);
-    flatImage = createIntakeImage();
     teleportX = 2;
     teleportY = 4;
     teleportDir = Direction.EAST;
   }
 
-  PImage createIntakeImage()
+  PImage createFlatImage()
   { 
-    PGraphics g = createGraphics(SZ,SZ, P3D);
+    PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ, P3D);
     g.beginDraw();
     g.camera(0,0,0,0,0,-HALF_SZ,0,1,0);
     setStandardPerspective(g);
@@ -42,8 +41,14 @@ class ArtIntake extends Artwork
     //Making the geometry for 'Intake' is handled in the main 'makeGallery' routine
   }
   
-  void makeRoom(PGraphics g, int tiles_to_the_right, int tiles_ahead, PImage floor)
+  int[] findGeometryArea(Map map)
   {
+    return null;
+  }
+  
+  void makeRoom(PGraphics g, int tiles_to_the_right, int tiles_ahead, AtlasRegion floor)
+  {
+    if (floor == null) floor = textureBlack;
     g.pushMatrix();
     
     for(int m = 0; m < tiles_to_the_right; m++)
@@ -54,11 +59,11 @@ class ArtIntake extends Artwork
       {
         g.fill(0);
         g.beginShape();
-        if (floor != null) g.texture(floor);
-        g.vertex(-HALF_SZ, HALF_SZ, -HALF_SZ, 0, 0);
-        g.vertex(HALF_SZ, HALF_SZ, -HALF_SZ, 1, 0);
-        g.vertex(HALF_SZ, HALF_SZ, HALF_SZ, 1, 1);
-        g.vertex(-HALF_SZ, HALF_SZ, HALF_SZ, 0, 1);
+        g.texture(floor.image);
+        floor.vertex(g, -HALF_SZ, HALF_SZ, -HALF_SZ, 0, 0);
+        floor.vertex(g, HALF_SZ, HALF_SZ, -HALF_SZ, 1, 0);
+        floor.vertex(g, HALF_SZ, HALF_SZ, HALF_SZ, 1, 1);
+        floor.vertex(g, -HALF_SZ, HALF_SZ, HALF_SZ, 0, 1);
         g.endShape(CLOSE);
         g.translate(0,0,-SZ);
       }
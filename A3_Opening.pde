@@ -2,19 +2,20 @@ class ArtOpening extends Artwork
 {
   //The Opening artwork actually performs two teleports. The first moves the player out of the gallery while the camera flies through the
   //'opening', at the end of which the player is teleported back to the final position in the gallery.
+  int exitX = 10, exitY = 10;
+  Direction exitDir = Direction.EAST;
   
   public ArtOpening(int x, int y, Direction dir)
   {
     super(x, y, dir);
-    flatImage = createOpeningImage();
     teleportX = -10;
     teleportY = -10;
     teleportDir = Direction.NORTH;
   }
   
-  PImage createOpeningImage()
+  PImage createFlatImage()
   {
-    PGraphics g = createGraphics(SZ,SZ, P3D);
+    PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ, P3D);
     g.beginDraw();
     g.camera(0,0,0,0,0,-HALF_SZ,0,1,0);
     setStandardPerspective(g); 
@@ -31,9 +32,9 @@ class ArtOpening extends Artwork
     
     if (artEffectCounter == 0)
     {
-      posX = 10;
-      posZ = 10;
-      dir = Direction.EAST;
+      posX = exitX;
+      posZ = exitY;
+      dir = exitDir;
     }
     
   }
@@ -43,32 +44,33 @@ class ArtOpening extends Artwork
     g.pushMatrix();
     g.translate(-HALF_SZ,-HALF_SZ, -HALF_SZ);
     
+    AtlasRegion t = textureStripes;
     g.beginShape();
-    g.texture(textureStripes);
-    g.vertex(0,0,0,0,0);
-    g.vertex(SZ/2,0,0,1,0);
-    g.vertex(0,SZ/2,0,0,1);
+    g.texture(t.image);
+    t.vertex(g, 0,0,0,0,0);
+    t.vertex(g, SZ/2,0,0,1,0);
+    t.vertex(g, 0,SZ/2,0,0,1);
     g.endShape(CLOSE);
   
     g.beginShape();
-    g.texture(textureStripes);
-    g.vertex(SZ/2,0,0,0,0);
-    g.vertex(SZ,0,0,1,0);
-    g.vertex(SZ,SZ/2,0,1,1);
+    g.texture(t.image);
+    t.vertex(g, SZ/2,0,0,0,0);
+    t.vertex(g, SZ,0,0,1,0);
+    t.vertex(g, SZ,SZ/2,0,1,1);
     g.endShape(CLOSE);
     
     g.beginShape();
-    g.texture(textureStripes);
-    g.vertex(0,SZ/2,0,0,0);
-    g.vertex(0,SZ,0,0,1);
-    g.vertex(SZ/2,SZ,0,1,1);
+    g.texture(t.image);
+    t.vertex(g, 0,SZ/2,0,0,0);
+    t.vertex(g, SZ/2,SZ,0,1,1);
+    t.vertex(g, 0,SZ,0,0,1);
     g.endShape(CLOSE);
     
     g.beginShape();
-    g.texture(textureStripes);
-    g.vertex(SZ,SZ/2,0,1,0);
-    g.vertex(SZ/2,SZ,0,0,1);
-    g.vertex(SZ,SZ,0,1,1);
+    g.texture(t.image);
+    t.vertex(g, SZ,SZ/2,0,1,0);
+    t.vertex(g, SZ,SZ,0,1,1);
+    t.vertex(g, SZ/2,SZ,0,0,1);
     g.endShape(CLOSE);
     
     g.translate(-SZ,-SZ,-SZ);
@@ -77,7 +79,7 @@ class ArtOpening extends Artwork
     {
       for(int x = 0; x < 3; x++)
       {
-        g.image(textureStripes, x * SZ, y * SZ);
+        textureStripes.draw(g, x * SZ, y * SZ, SZ, SZ);
         
       }
     }
@@ -102,4 +104,21 @@ class ArtOpening extends Artwork
       g.translate(-SZ, 0, 0);
     }
   }
+  
+  int[] findGeometryArea(Map map)
+  {
+    //The striped walls are on the east side of the exit position and the cells either side of it. The opening itself
+    //is only drawn during the art effect, when everything is drawn anyway.
+    return new int[] {exitX, exitY - 1, exitX, exitY + 1};
+  }
+  
+  int getExitX()
+  {
+    return exitX;
+  }
+  
+  int getExitY()
+  {
+    return exitY;
+  }
 }
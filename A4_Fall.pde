@@ -3,27 +3,44 @@ class ArtFall extends Artwork
   public ArtFall(int x, int y, Direction dir)
   {
     super(x, y, dir);
-    flatImage = createFallImage();
     teleportX = 2;
     teleportY = 3;
     teleportDir = Direction.WEST;
   }
   
-  PImage createFallImage()
+  PImage createFlatImage()
   {
-    PGraphics g = createGraphics(SZ,SZ);
+    PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ);
     g.beginDraw();
-    makeFall(g, 0);
+    g.scale(TEXTURE_SCALE);
+    makeFall(g, 0, 1);
     g.endDraw();
     return g;
   }
   
+  int getImageVersion()
+  {
+    return 2;
+  }
+  
+  boolean needsOpenGL()
+  {
+    //The image is drawn with JAVA2D, so it can be drawn on one of the pre-renderer's worker threads.
+    return false;
+  }
+  
+  boolean isDoubleSided()
+  {
+    //The panels stand in the open rather than against a wall, so they can be seen from behind.
+    return true;
+  }
+  
   void doMovement()
   {
     forwardPositionModifier = -SZ + ((float)(ART_EFFECT_FRAMES - artEffectCounter) * (float)SZ/ART_EFFECT_FRAMES);
   }
   
-  void makeFall(PGraphics g, float phase)
+  void makeFall(PGraphics g, float phase, int panels)
   {
     g.pushMatrix();
     
@@ -31,25 +48,40 @@ class ArtFall extends Artwork
     if (g.is3D())
       g.translate(-HALF_SZ,-HALF_SZ, -HALF_SZ);
     
-    g.scale(1.0/16,1.0/16);
-    
-    //The waves texture is drawn in 16 rows, the amount to stretch each row is determined with the 'sin' function to provide
-    //a smooth wave effect. By tying the sine curve's phase to the sketch's animation counter, the waves seem to undulate 
-    //across the screen with each frame.
+    //The waves texture is drawn in 16 rows of 16, the amount to stretch each row is determined with the 'sin' function to
+    //provide a smooth wave effect. By tying the sine curve's phase to the sketch's animation counter, the waves seem to
+    //undulate across the screen with each frame. 'textureWaveRow' holds a whole row of the waves side by side, so each row
+    //of a panel is a single quad, and in 3D all of the panels are drawn as one shape.
     
+    AtlasRegion t = textureWaveRow;
+    if (g.is3D())
+    {
+      g.beginShape(QUADS);
+      g.texture(t.image);
+    }
+    float top = 0;
     for(int y = 0; y < 16; y++)
     {
       float h = (sin(y / 16.0 * TWO_PI + phase) + 1.00);
       if (h < 0.1) h = 0.1;
-      g.scale(1,  h);
-      for(int x = 0; x < 16; x++)
+      h *= SZ / 16;
+      for(int n = 0; n < panels; n++)
       {
-        g.image(textureWaves, SZ * x, 0);
+        if (g.is3D())
+        {
+          t.vertex(g, n * SZ, top, 0, 0, 0);
+          t.vertex(g, (n + 1) * SZ, top, 0, 1, 0);
+          t.vertex(g, (n + 1) * SZ, top + h, 0, 1, 1);
+          t.vertex(g, n * SZ, top + h, 0, 0, 1);
+        }
+        else
+        {
+          t.draw(g, n * SZ, top, SZ, h);
+        }
       }
-      g.translate(0,SZ);
-      g.scale(1,1/h);
-     
-    } 
+      top += h;
+    }
+    if (g.is3D()) g.endShape();
     g.popMatrix();
   }
   
@@ -59,10 +91,6 @@ class ArtFall extends Artwork
     g.rotateY(-teleportDir.getAngle());
     
     g.translate(-SZ,0,-SZ);
-    for(int n = 0; n < 3; n++)
-    {
-      makeFall(g, animateCounter / 25);
-      g.translate(SZ, 0, 0);
-    }
+    makeFall(g, view.animation / 25, 3);
   }
 }
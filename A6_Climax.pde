@@ -7,6 +7,7 @@ class ArtClimax extends Artwork
   
   float[][] curve_x = new float[SEGMENTS+4][2];
   float[][] curve_z = new float[SEGMENTS+4][2]; 
+  PShape curve; //Built from the above along with the artwork.
   
   public ArtClimax(int x, int y, Direction dir)
   {
@@ -21,16 +22,16 @@ class ArtClimax extends Artwork
       curve_z[n][1] = -sin(q) * (HALF_SZ * 2.9);
       curve_x[n][1] = cos(q) * (HALF_SZ * 2.9);    
     }
+    curve = createClimaxCurve();
     
-    flatImage = createClimaxImage();
     teleportX = 8;
     teleportY = 11;
     teleportDir = Direction.NORTH;
   }
   
-  PImage createClimaxImage()
+  PImage createFlatImage()
   {
-    PGraphics g = createGraphics(SZ,SZ, P3D);
+    PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ, P3D);
     g.beginDraw();
     g.camera(0,0,0,0,0,-HALF_SZ,0,1,0);
     float cameraZ = HALF_SZ / tan(HALF_PI/2.0);
@@ -53,8 +54,25 @@ class ArtClimax extends Artwork
     makeClimaxCurve(g);
   }
   
+  boolean isDoubleSided()
+  {
+    //The curve faces inwards, but reaches into the cells to its north, from which the outside can be seen.
+    return true;
+  }
+  
   void makeClimaxCurve(PGraphics g)
-  {    
+  {
+    g.shape(curve);
+  }
+  
+  PShape createClimaxCurve()
+  {
+    //The curve never changes, so its segments are built once into a single shape, textured from the atlas like the gallery.
+    PShape s = createShape();
+    s.beginShape(QUADS);
+    s.noStroke();
+    s.textureMode(NORMAL);
+    s.texture(textureStripes.image);
     for(int n = 0; n < SEGMENTS-1; n+=4)
     { 
       for (int y = 0; y < VSEGMENTS; y++)
@@ -62,25 +80,30 @@ class ArtClimax extends Artwork
         float yfrom = -HALF_SZ + y * VSEG_DISTANCE;
         float yto = yfrom + VSEG_DISTANCE;
         
-        g.beginShape();
-        g.texture(textureStripes);
         if (y % 2 == 0) //The segments protrude alternately inward and outward from top to bottom.
         {                        
-          g.vertex(curve_x[n][0], yfrom, curve_z[n][0],0,0);
-          g.vertex(curve_x[n+4][0], yfrom, curve_z[n+4][0],1,0);
-          g.vertex(curve_x[n+5][1], yto, curve_z[n+5][1],1,1); 
-          g.vertex(curve_x[n+1][1], yto, curve_z[n+1][1],0,1);
+          curveVertex(s, curve_x[n][0], yfrom, curve_z[n][0],0,0);
+          curveVertex(s, curve_x[n+1][1], yto, curve_z[n+1][1],0,1);
+          curveVertex(s, curve_x[n+5][1], yto, curve_z[n+5][1],1,1); 
+          curveVertex(s, curve_x[n+4][0], yfrom, curve_z[n+4][0],1,0);
         }
         else
         {
-          g.vertex(curve_x[n+1][1], yfrom, curve_z[n+1][1],0,0);
-          g.vertex(curve_x[n+5][1], yfrom, curve_z[n+5][1],1,0);
-          g.vertex(curve_x[n+4][0], yto, curve_z[n+4][0],1,1); 
-          g.vertex(curve_x[n][0], yto, curve_z[n][0],0,1);
+          curveVertex(s, curve_x[n+1][1], yfrom, curve_z[n+1][1],0,0);
+          curveVertex(s, curve_x[n][0], yto, curve_z[n][0],0,1);
+          curveVertex(s, curve_x[n+4][0], yto, curve_z[n+4][0],1,1); 
+          curveVertex(s, curve_x[n+5][1], yfrom, curve_z[n+5][1],1,0);
         }
-        g.endShape();
       }  
-    }    
+    }
+    s.endShape();
+    return s;
+  }
+  
+  void curveVertex(PShape s, float x, float y, float z, float u, float v)
+  {
+    AtlasRegion t = textureStripes;
+    s.vertex(x, y, z, t.u(u), t.v(v));
   }
   
   void doMovement()
@@ -1,6 +1,7 @@
 //Having an abstract base class for the artwork, makes it much simpler to expand the sketch with more artworks. Each descendent
-//class just needs to override the constructor and two other methods: 'makeGeometry', which places the geometry pertaining to the artwork in the gallery, and
-//'doMovement' which controls how the camera settings animate when the art effect is triggered.
+//class just needs to override the constructor and three other methods: 'makeGeometry', which places the geometry pertaining to the artwork in the gallery,
+//'doMovement' which controls how the camera settings animate when the art effect is triggered, and 'createFlatImage', which pre-renders the image
+//hung on the wall.
 
 abstract class Artwork
 {
@@ -8,7 +9,8 @@ abstract class Artwork
   int teleportX, teleportY;
   Direction facingDir;
   Direction teleportDir;
-  protected PImage flatImage;
+  protected volatile PImage flatImage; //This is null until the PreRenderer has drawn it, which may be on another thread.
+  private int[] geometryArea; //Found by 'findGeometryArea' the first time it is needed.
   
   public Artwork(int x, int y, Direction dir)
   {
@@ -22,5 +24,66 @@ abstract class Artwork
   
   public abstract void makeGeometry(PGraphics g);
   
+  //The rectangle of cells holding all of the geometry placed by 'makeGeometry', as {x1, y1, x2, y2} inclusive, or null if it
+  //places none outside of the art effect. It may reach beyond the edges of the map.
+  public int[] getGeometryArea(Map map)
+  {
+    if (geometryArea == null) geometryArea = findGeometryArea(map);
+    return geometryArea;
+  }
+  
+  //Most of the artworks build their geometry around the teleport position, reaching no more than two cells away, so that is
+  //the default. Artworks placing their geometry elsewhere override this.
+  protected int[] findGeometryArea(Map map)
+  {
+    return new int[] {teleportX - 2, teleportY - 2, teleportX + 2, teleportY + 2};
+  }
+  
+  //Whether any of the geometry placed by 'makeGeometry' could be seen this frame.
+  public boolean isGeometryVisible(Visibility v)
+  {
+    int[] area = getGeometryArea(v.map);
+    return area != null && v.anyVisible(area[0], area[1], area[2], area[3]);
+  }
+  
+  //Whether the back of any of the geometry placed by 'makeGeometry' can be seen, in which case back faces aren't culled
+  //while it is drawn. The front of every face is the side wound clockwise, as Processing's own shapes are.
+  public boolean isDoubleSided()
+  {
+    return false;
+  }
+  
   public abstract void doMovement();
+  
+  //Where the user is left when the art effect ends. This is the teleport position, unless the artwork moves them on again
+  //during its effect.
+  public int getExitX()
+  {
+    return teleportX;
+  }
+  
+  public int getExitY()
+  {
+    return teleportY;
+  }
+  
+  public abstract PImage createFlatImage();
+  
+  //The name and version under which the image is saved in the TextureCache. The version must be increased whenever the
+  //image would be drawn differently, so that old copies aren't used.
+  public String getImageName()
+  {
+    return getClass().getSimpleName();
+  }
+  
+  public int getImageVersion()
+  {
+    return 1;
+  }
+  
+  //Whether 'createFlatImage' draws with OpenGL, in which case it can only be called from the sketch's own thread.
+  public boolean needsOpenGL()
+  {
+    return true;
+  }
 }
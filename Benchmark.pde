@@ -0,0 +1,464 @@
+//Running the sketch with the '--benchmark' argument measures the main map and rendering operations instead of opening the
+//gallery. Each operation is repeated for a few seconds, and the number of operations per second and the memory allocated by
+//each are reported, both in the console and in 'benchmark.csv' in the sketch folder. Comparing these between machines helps
+//choose suitable values of SZ and FRAME_RATE for each of them.
+//The rendering operations draw into an offscreen buffer the size of the window, so the window can be left hidden, and on
+//Linux they run under a virtual display such as Xvfb with software OpenGL. Running with '--software' as well measures them
+//drawn by the SoftwareGraphics instead (see SoftwareRenderer).
+//The map operations use the map given with '--map <file>', if there is one, so they can be measured on larger galleries.
+//The map lookups are also measured on a large generated map, and compared with the layout the Map used to store its cells
+//in, so the difference the layout makes can be reproduced on any machine.
+//Running with '--benchmark-headless' instead measures just the operations which don't draw anything (reading the map, the
+//lookups, the visibility rays and the instrumentation), before the window is opened, so they can be run on a machine with
+//no display or OpenGL at all. '--benchmark' measures them too, before the rendering operations.
+//The time each operation is warmed up and measured for, and how many times it ran in each, are reported with its figures.
+//The instrumentation is checked as well, by running it for a fixed number of frames with metrics written to
+//'benchmark-metrics.csv' and '.json', reporting what it allocates per frame, and checking every frame's line reached the file.
+
+final float BENCHMARK_WARMUP_SECONDS = 1; //Time spent running each operation before measuring, so the JIT compiler has settled.
+final float BENCHMARK_SECONDS = 3; //Time spent measuring each operation.
+final int BENCHMARK_LARGE_MAP_SIZE = 1000; //The width and height of the generated map the lookups are also measured on.
+final String BENCHMARK_COLUMNS = "operation,warmup_runs,measured_runs,operations,measured_seconds,ops_per_second,ms_per_op,bytes_per_op,allocation_mb_per_second";
+final int BENCHMARK_INSTRUMENTED_FRAMES = 3000; //Frames of metrics written when checking the instrumentation, after as many again to warm up.
+int benchmarkSink = 0; //The results of the map lookups are added to this, so the JIT compiler can't optimise them away.
+
+//Each benchmarked operation returns how many operations it performed, so cheap lookups can be run in batches.
+abstract class BenchmarkOp
+{
+  String name;
+  
+  BenchmarkOp(String name)
+  {
+    this.name = name;
+  }
+  
+  abstract int run();
+}
+
+boolean benchmarkRequested()
+{
+  return argumentGiven("--benchmark");
+}
+
+boolean headlessBenchmarkRequested()
+{
+  return argumentGiven("--benchmark-headless");
+}
+
+void runHeadlessBenchmarks()
+{
+  //Called from the sketch's 'main', before Processing opens the window, so only operations which don't draw anything can be
+  //measured. The map is read without its artworks, which need the renderer.
+  ArrayList<String> results = new ArrayList<String>();
+  results.add(BENCHMARK_COLUMNS);
+  println("Benchmarking without a display, with SZ = " + SZ + ", FRAME_RATE = " + FRAME_RATE);
+  printBenchmarkSettings();
+  
+  String mapFile = mapFile();
+  Map m = new Map(mapFile, false);
+  println("Map: " + mapFile + ", " + m.getWidth() + " x " + m.getHeight());
+  addHeadlessBenchmarks(results, mapFile, m, false);
+  saveBenchmarkResults(results);
+}
+
+void runBenchmarks()
+{
+  ArrayList<String> results = new ArrayList<String>();
+  results.add(BENCHMARK_COLUMNS);
+  println("Benchmarking with SZ = " + SZ + ", FRAME_RATE = " + FRAME_RATE);
+  printBenchmarkSettings();
+  
+  final PGraphics pg = createGraphics(width, height, P3D);
+  String mapFile = mapFile();
+  prepareGallery();
+  println("Map: " + mapFile + ", " + map.getWidth() + " x " + map.getHeight());
+  
+  addHeadlessBenchmarks(results, mapFile, map, true);
+  
+  results.add(benchmark(new BenchmarkOp("GalleryMesh construction")
+  {
+    int run()
+    {
+      new GalleryMesh(map, visibility);
+      return 1;
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("makeGallery (whole map)")
+  {
+    int run()
+    {
+      visibility.clear();
+      visibility.showAll();
+      beginBenchmarkFrame(pg);
+      makeGallery(pg);
+      pg.endDraw();
+      return 1;
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("makeGallery (from start position)")
+  {
+    int run()
+    {
+      visibility.clear();
+      visibility.addPose(map.startX, map.startY, Direction.NORTH);
+      beginBenchmarkFrame(pg);
+      makeGallery(pg);
+      pg.endDraw();
+      return 1;
+    }
+  }));
+  
+  for(final Artwork aw: map.artworks)
+  {
+    String name = aw.getClass().getSimpleName();
+    
+    results.add(benchmark(new BenchmarkOp(name + ".makeGeometry")
+    {
+      int run()
+      {
+        beginBenchmarkFrame(pg);
+        pg.pushMatrix();
+        aw.makeGeometry(pg);
+        pg.popMatrix();
+        pg.endDraw();
+        return 1;
+      }
+    }));
+    
+    results.add(benchmark(new BenchmarkOp(name + ".createFlatImage")
+    {
+      int run()
+      {
+        aw.createFlatImage();
+        return 1;
+      }
+    }));
+  }
+  
+  saveBenchmarkResults(results);
+}
+
+void printBenchmarkSettings()
+{
+  println("Java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + "), " + Runtime.getRuntime().availableProcessors() + " processors");
+  println("Each operation is run for " + BENCHMARK_WARMUP_SECONDS + " s to warm up, then measured for " + BENCHMARK_SECONDS + " s.");
+  println("The instrumentation runs " + BENCHMARK_INSTRUMENTED_FRAMES + " frames to warm up, then " + BENCHMARK_INSTRUMENTED_FRAMES + " measured frames.");
+}
+
+void saveBenchmarkResults(ArrayList<String> results)
+{
+  saveStrings(sketchPath("benchmark.csv"), results.toArray(new String[0]));
+  println("Results saved to " + sketchPath("benchmark.csv"));
+}
+
+void addHeadlessBenchmarks(ArrayList<String> results, final String mapFile, final Map m, final boolean withArtworks)
+{
+  //The operations which don't need the renderer. Without it, the map is read without its artworks.
+  results.add(benchmark(new BenchmarkOp(withArtworks ? "Map construction" : "Map construction (layout only)")
+  {
+    int run()
+    {
+      new Map(mapFile, withArtworks);
+      return 1;
+    }
+  }));
+  
+  addLookupBenchmarks(results, m, "");
+  
+  //The lookups are compared again on a much larger map, where the layout's effect on the processor's caches shows.
+  Map large = new Map(writeLargeMap(BENCHMARK_LARGE_MAP_SIZE), false);
+  addLookupBenchmarks(results, large, " (" + large.getWidth() + " x " + large.getHeight() + ")");
+  
+  results.add(benchmark(new BenchmarkOp("Visibility.findSeenCells")
+  {
+    int run()
+    {
+      new Visibility(m).findSeenCells();
+      return 1;
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("Visibility.addPose (every pose)")
+  {
+    //Casts the rays for every standing pose on the map, as the sets are only cast the first time each pose is used.
+    int run()
+    {
+      Visibility v = new Visibility(m);
+      v.clear();
+      int poses = 0;
+      for(int y = 0; y < m.getHeight(); y++)
+      {
+        for(int x = 0; x < m.getWidth(); x++)
+        {
+          if (m.floorAt(x, y) == 0) continue;
+          for(Direction d: Direction.values())
+          {
+            v.addPose(x, y, d);
+            poses++;
+          }
+        }
+      }
+      return max(1, poses);
+    }
+  }));
+  
+  results.add(checkInstrumentation(m, "benchmark-metrics.csv"));
+  results.add(checkInstrumentation(m, "benchmark-metrics.json"));
+}
+
+void addLookupBenchmarks(ArrayList<String> results, final Map m, String label)
+{
+  //Measures the map lookups the renderer relies on, first with the Map's flat array of bytes, then with the same cells in
+  //the array of columns the Map used before (see ColumnArrayLayout), for comparison.
+  final ColumnArrayLayout old = new ColumnArrayLayout(m);
+  
+  results.add(benchmark(new BenchmarkOp("Map.floorAt" + label)
+  {
+    int run()
+    {
+      for(int y = 0; y < m.getHeight(); y++)
+      {
+        for(int x = 0; x < m.getWidth(); x++)
+        {
+          benchmarkSink += m.floorAt(x, y);
+        }
+      }
+      return m.getWidth() * m.getHeight();
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("Map.wallAt" + label)
+  {
+    Direction[] directions = Direction.values();
+    
+    int run()
+    {
+      for(int y = 0; y < m.getHeight(); y++)
+      {
+        for(int x = 0; x < m.getWidth(); x++)
+        {
+          for(int d = 0; d < 4; d++)
+          {
+            if (m.wallAt(x, y, directions[d])) benchmarkSink++;
+          }
+        }
+      }
+      return m.getWidth() * m.getHeight() * 4;
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("Map.getRow and wallOf" + label)
+  {
+    //The same lookups as above, reading the flat array a row at a time rather than a cell at a time.
+    Direction[] directions = Direction.values();
+    byte[] row = new byte[m.getWidth()];
+    
+    int run()
+    {
+      for(int y = 0; y < m.getHeight(); y++)
+      {
+        m.getRow(y, row);
+        for(int x = 0; x < row.length; x++)
+        {
+          for(int d = 0; d < 4; d++)
+          {
+            if (m.wallOf(row[x], directions[d])) benchmarkSink++;
+          }
+        }
+      }
+      return m.getWidth() * m.getHeight() * 4;
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("ColumnArrayLayout.floorAt" + label)
+  {
+    int run()
+    {
+      for(int y = 0; y < m.getHeight(); y++)
+      {
+        for(int x = 0; x < m.getWidth(); x++)
+        {
+          benchmarkSink += old.floorAt(x, y);
+        }
+      }
+      return m.getWidth() * m.getHeight();
+    }
+  }));
+  
+  results.add(benchmark(new BenchmarkOp("ColumnArrayLayout.wallAt" + label)
+  {
+    Direction[] directions = Direction.values();
+    
+    int run()
+    {
+      for(int y = 0; y < m.getHeight(); y++)
+      {
+        for(int x = 0; x < m.getWidth(); x++)
+        {
+          for(int d = 0; d < 4; d++)
+          {
+            if (old.wallAt(x, y, directions[d])) benchmarkSink++;
+          }
+        }
+      }
+      return m.getWidth() * m.getHeight() * 4;
+    }
+  }));
+}
+
+String writeLargeMap(int size)
+{
+  //Writes a map of the given width and height to the sketch folder, filled with a random mix of the kinds of cell, and
+  //returns its path. The same seed is used every time, so every run and every machine measures the same map.
+  java.util.Random random = new java.util.Random(1);
+  String cellTypes = "##m- ";
+  String[] lines = new String[size + 2];
+  lines[0] = "size " + size + " " + size;
+  lines[1] = "layout";
+  char[] row = new char[size];
+  for(int y = 0; y < size; y++)
+  {
+    for(int x = 0; x < size; x++)
+    {
+      row[x] = cellTypes.charAt(random.nextInt(cellTypes.length()));
+    }
+    lines[y + 2] = new String(row);
+  }
+  String path = sketchPath("benchmark-large.map");
+  saveStrings(path, lines);
+  return path;
+}
+
+//The layout as the Map stored it before it was packed into a single flat array of bytes: a short for each cell, in an
+//array of columns, with a switch on the direction to pick out each wall's bit. Only used by the benchmark, which copies a
+//Map into it so that the old and new lookups can be measured on exactly the same cells.
+class ColumnArrayLayout
+{
+  private static final int NORTH_BITMASK = 16, EAST_BITMASK = 32, SOUTH_BITMASK = 64, WEST_BITMASK = 128;
+  private short[][] mapData;
+  
+  public ColumnArrayLayout(Map map)
+  {
+    mapData = new short[map.getWidth()][map.getHeight()];
+    byte[] row = new byte[map.getWidth()];
+    for(int y = 0; y < map.getHeight(); y++)
+    {
+      map.getRow(y, row);
+      for(int x = 0; x < map.getWidth(); x++)
+      {
+        mapData[x][y] = (short)(row[x] & 255);
+      }
+    }
+  }
+  
+  public int floorAt(int x, int y)
+  {
+    return mapData[x][y] & 15;
+  }
+  
+  public boolean wallAt(int x, int y, Direction d)
+  {
+    switch(d)
+    {
+      case NORTH:
+        return (mapData[x][y] & NORTH_BITMASK) != 0;
+      case EAST:
+        return (mapData[x][y] & EAST_BITMASK) != 0;
+      case SOUTH:
+        return (mapData[x][y] & SOUTH_BITMASK) != 0;
+      case WEST:
+        return (mapData[x][y] & WEST_BITMASK) != 0;
+    }
+    return false;
+  }
+}
+
+void beginBenchmarkFrame(PGraphics pg)
+{
+  //Sets up the offscreen buffer as 'draw' would, looking north from the start position.
+  pg.beginDraw();
+  setUpGraphics(pg);
+  setStandardPerspective(pg);
+  pg.background(255);
+  pg.translate(-(map.startX * SZ), 0, -(map.startY * SZ));
+}
+
+String checkInstrumentation(Map m, String metricsFile)
+{
+  //Runs the instrumentation on its own for a fixed number of frames, writing their metrics to the file, to check that it
+  //allocates next to nothing each frame, and that closing it leaves a line in the file for every frame.
+  Instrumentation in = new Instrumentation(m.artworks, metricsFile);
+  for(int n = 0; n < BENCHMARK_INSTRUMENTED_FRAMES; n++)
+  {
+    in.beginFrame();
+    in.countDraw(4);
+    in.endFrame();
+  }
+  
+  com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+  long threadId = Thread.currentThread().getId();
+  long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+  long start = System.nanoTime();
+  for(int n = 0; n < BENCHMARK_INSTRUMENTED_FRAMES; n++)
+  {
+    in.beginFrame();
+    in.countDraw(4);
+    in.endFrame();
+  }
+  long now = System.nanoTime();
+  long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+  in.close();
+  
+  int frames = 2 * BENCHMARK_INSTRUMENTED_FRAMES;
+  int expected = in.json ? frames : frames + 1; //The CSV file has a header line too.
+  int lines = loadStrings(sketchPath(metricsFile)).length;
+  if (lines != expected)
+  {
+    println("Instrumentation check failed: " + metricsFile + " has " + lines + " lines, rather than " + expected + ".");
+  }
+  return benchmarkResult("Instrumentation frame (" + metricsFile + ")", BENCHMARK_INSTRUMENTED_FRAMES, BENCHMARK_INSTRUMENTED_FRAMES, BENCHMARK_INSTRUMENTED_FRAMES, (now - start) / 1e9, allocated);
+}
+
+String benchmark(BenchmarkOp op)
+{
+  long warmupRuns = 0;
+  long end = System.nanoTime() + (long)(BENCHMARK_WARMUP_SECONDS * 1e9);
+  while (System.nanoTime() < end)
+  {
+    op.run();
+    warmupRuns++;
+  }
+  
+  //Only memory allocated on the Java heap by this thread is counted, not memory allocated by the graphics driver.
+  com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+  long threadId = Thread.currentThread().getId();
+  long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+  
+  long runs = 0, operations = 0;
+  long start = System.nanoTime();
+  long now;
+  end = start + (long)(BENCHMARK_SECONDS * 1e9);
+  do
+  {
+    operations += op.run();
+    runs++;
+    now = System.nanoTime();
+  } while (now < end);
+  
+  long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+  return benchmarkResult(op.name, warmupRuns, runs, operations, (now - start) / 1e9, allocated);
+}
+
+String benchmarkResult(String name, long warmupRuns, long runs, long operations, double seconds, long allocated)
+{
+  //Prints the figures for an operation, and returns them as a line of the CSV file.
+  double opsPerSecond = operations / seconds;
+  double msPerOp = seconds * 1000 / operations;
+  double bytesPerOp = (double)allocated / operations;
+  double allocationRate = allocated / seconds / (1024 * 1024);
+  
+  println(String.format("%-46s %14.1f ops/s %12.4f ms/op %12.1f bytes/op %8.1f MB/s   (%d + %d runs)", name, opsPerSecond, msPerOp, bytesPerOp, allocationRate, warmupRuns, runs));
+  return String.format("%s,%d,%d,%d,%.3f,%.1f,%.6f,%.1f,%.2f", name, warmupRuns, runs, operations, seconds, opsPerSecond, msPerOp, bytesPerOp, allocationRate);
+}
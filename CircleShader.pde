@@ -0,0 +1,39 @@
+//The floors marking the position of each artwork show a white ring on black, which grows outwards from the centre and then
+//starts again. Rather than cycling through a set of pre-drawn textures, the ring is drawn by a fragment shader (in the data
+//folder), which costs no texture memory and moves smoothly however many frames are drawn.
+//Setting a uniform with PShader's 'set' method allocates memory every time, so the ring's phase is passed to OpenGL directly
+//whenever the shader is bound, keeping the draw loop free of allocation.
+
+final float CIRCLE_STEP_SECONDS = 0.3; //The time taken for the ring to grow by its own width.
+final float CIRCLE_RING_WIDTH = 0.05; //As a fraction of the floor's width, as in the shader.
+
+float circlePhase(float seconds)
+{
+  //The ring's phase, from 0 to 4, increasing as it grows outwards. This is worked out here, as the shader may only have 16
+  //bit floating point numbers, which can't hold a time after the sketch has been running for a while. The CPU renderers
+  //draw the ring from it too.
+  return (seconds / CIRCLE_STEP_SECONDS) % 4;
+}
+
+class CircleShader extends PShader
+{
+  float phase;
+  int phaseLocation = -2; //Looked up the first time the shader is used.
+  
+  public CircleShader()
+  {
+    super(OpArtVirtualGallery.this, loadStrings("circles.vert"), loadStrings("circles.frag"));
+  }
+  
+  void setTime(float seconds)
+  {
+    phase = circlePhase(seconds);
+  }
+  
+  protected void setCommonUniforms()
+  {
+    super.setCommonUniforms();
+    if (phaseLocation == -2) phaseLocation = getUniformLoc("ringPhase");
+    if (phaseLocation != -1) setUniformValue(phaseLocation, phase);
+  }
+}
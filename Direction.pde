@@ -1,17 +1,20 @@
 enum Direction 
 {
-  NORTH(0, "North"), 
-  EAST(HALF_PI, "East"), 
-  SOUTH(PI, "South"), 
-  WEST(HALF_PI * 3, "West");
+  NORTH(0, "North", 0, -1), 
+  EAST(HALF_PI, "East", 1, 0), 
+  SOUTH(PI, "South", 0, 1), 
+  WEST(HALF_PI * 3, "West", -1, 0);
   
   private float angle;
   private String name;
+  private int dx, dz; //The unit step across the map grid when moving in this direction.
   
-  private Direction(float angle, String name)
+  private Direction(float angle, String name, int dx, int dz)
   {
     this.angle = angle;
     this.name = name;
+    this.dx = dx;
+    this.dz = dz;
   }
   
   Direction clockwise()
@@ -32,4 +35,6 @@ enum Direction
   
   float getAngle() {return angle;}
   String getName() {return name;}
+  int getDX() {return dx;}
+  int getDZ() {return dz;}
 }
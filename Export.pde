@@ -0,0 +1,134 @@
+//Running the sketch with the argument '--export <script>' plays through a scripted walk around the gallery, and saves every
+//frame as an image, for making videos and for comparing against earlier versions of the sketch. Frames are drawn as fast as
+//the machine allows, but each takes exactly one step of the simulation, so each saved image is exactly 1/FRAME_RATE seconds
+//apart. The images are saved into the 'export' folder in the sketch folder, or the folder given with
+//'--export-to <folder>'. No sound is played.
+//On a Linux machine without a display or GPU, run it under a virtual display with software OpenGL, e.g.
+//  LIBGL_ALWAYS_SOFTWARE=1 xvfb-run -s "-screen 0 1280x1024x24" ./OpArtVirtualGallery --export data/tour.txt
+//
+//The script has one command per line, each of which waits for the previous one (and any art effect it set off) to finish:
+//  left, right, forward, back   Turn or step, as with the arrow keys.
+//  wait <frames>                Stand still for a number of frames.
+//  diagnostics                  Turn the diagnostics display on or off.
+//Lines beginning with ';' are comments.
+
+class FrameExporter
+{
+  String[] script;
+  int line = 0;
+  int waitFrames = 0;
+  
+  File folder;
+  int frameNumber = 0;
+  ExecutorService savers; //Encoding the images is slow, so it is done on other threads while the next frames are drawn.
+  Semaphore unsaved; //Limits how many frames can be waiting to be saved, so they can't fill up the memory.
+  
+  public FrameExporter(String scriptFile, File folder)
+  {
+    script = loadStrings(scriptFile);
+    if (script == null)
+    {
+      throw new RuntimeException("The export script '" + scriptFile + "' could not be opened.");
+    }
+    
+    this.folder = folder;
+    folder.mkdirs();
+    int threads = max(1, Runtime.getRuntime().availableProcessors() - 1);
+    savers = Executors.newFixedThreadPool(threads);
+    unsaved = new Semaphore(threads * 2);
+  }
+  
+  void update()
+  {
+    //Called at the start of each frame. As with the keyboard, a command can only start once the last one has finished.
+    if (actionInProgress || pauseCounter > 0) return;
+    if (waitFrames > 0)
+    {
+      waitFrames--;
+      return;
+    }
+    
+    while (line < script.length)
+    {
+      String[] tokens = splitTokens(script[line++]);
+      if (tokens.length == 0 || tokens[0].startsWith(";")) continue;
+      
+      if (tokens[0].equals("left")) startLeftTurn();
+      else if (tokens[0].equals("right")) startRightTurn();
+      else if (tokens[0].equals("forward")) startForwardStep();
+      else if (tokens[0].equals("back")) startBackwardStep();
+      else if (tokens[0].equals("wait") && tokens.length == 2) waitFrames = Integer.parseInt(tokens[1]) - 1;
+      else if (tokens[0].equals("diagnostics"))
+      {
+        displayDiagnostics = !displayDiagnostics;
+        continue;
+      }
+      else throw new RuntimeException("Unrecognised command in the export script, line " + line + ": " + script[line - 1]);
+      return;
+    }
+  }
+  
+  boolean isFinished()
+  {
+    return line >= script.length && waitFrames <= 0 && !actionInProgress && pauseCounter == 0;
+  }
+  
+  void captureFrame()
+  {
+    //Called at the end of each frame.
+    final PImage frame = get();
+    final String filename = new File(folder, "frame-" + nf(frameNumber++, 6) + ".png").getAbsolutePath();
+    
+    unsaved.acquireUninterruptibly();
+    savers.execute(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          frame.save(filename);
+        }
+        finally
+        {
+          unsaved.release();
+        }
+      }
+    });
+  }
+  
+  void finish()
+  {
+    //Waits for the last frames to be saved.
+    savers.shutdown();
+    try
+    {
+      savers.awaitTermination(1, TimeUnit.HOURS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    println("Exported " + frameNumber + " frames to " + folder);
+  }
+}
+
+String argumentAfter(String name)
+{
+  //Returns the command line argument following the given one, or null if it wasn't given.
+  if (args == null) return null;
+  for(int n = 0; n < args.length - 1; n++)
+  {
+    if (args[n].equals(name)) return args[n + 1];
+  }
+  return null;
+}
+
+boolean argumentGiven(String name)
+{
+  if (args == null) return false;
+  for(String a: args)
+  {
+    if (a.equals(name)) return true;
+  }
+  return false;
+}
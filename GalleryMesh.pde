@@ -0,0 +1,384 @@
+//The walls, floors and ceilings of the gallery never change once the map has been built, so rather than issuing hundreds of
+//separate immediate-mode shapes every frame, they are compiled once into a retained PShape, which can be drawn with a single
+//call to 'shape'. Every surface is textured from the TextureAtlas, even the plain ones, so the whole mesh uses one texture.
+//Only the animated circles marking the artworks are left out of this, and are still drawn every frame by 'makeGallery'.
+//Neighbouring walls, floors and ceilings of the same plain colour are merged into larger quads, across the whole map, so
+//a straight corridor has a single quad for each of its walls. The shape is split into square chunks of cells, so that when
+//only part of the gallery can be seen, only some of it needs to be drawn. Each quad belongs to the chunk its first cell is
+//in, and that chunk is drawn whenever any chunk the quad reaches into has a visible cell. A long quad can drag a little
+//more of the mesh along with it, but drawing a few extra quads costs far less than drawing each piece separately.
+//Every quad is wound clockwise as seen from inside the cell, so the backs can be culled. Where the back of a wall can be
+//seen from outside its cell, it is given a second quad facing the other way, so that culling never leaves a hole.
+//Cells that could never be seen, from anywhere the user can get to, are left out altogether (see 'findSeenCells').
+
+//The size of the instruction plaque, and of the face inside its bevelled frame.
+final int PLAQUE_HALF_WIDTH = (int)(SZ / 2.5f);
+final int PLAQUE_HALF_HEIGHT = SZ / 3;
+final int PLAQUE_FACE_HALF_WIDTH = PLAQUE_HALF_WIDTH - SZ/16;
+final int PLAQUE_FACE_HALF_HEIGHT = PLAQUE_HALF_HEIGHT - SZ/16;
+final int PLAQUE_DEPTH = SZ / 24;
+
+class GalleryMesh
+{
+  Map map; //The map this mesh was built from. If the sketch's map is replaced, the mesh needs rebuilding.
+  
+  final int CHUNK_SIZE = 4; //The width and height of a chunk, in cells.
+  int chunksAcross, chunksDown;
+  
+  PShape surfaces; //A group with one child per chunk.
+  PShape[] chunks; //The child shapes. These are null if the chunk has no geometry.
+  int[][] drawnWith; //For each chunk, the chunks whose quads reach into it, which are drawn whenever it has a visible cell.
+  boolean[] chunkChecked, chunkDrawn;
+  
+  int[] circleX, circleY; //Positions of the floors marked with the animating circles.
+  boolean[] merged; //Scratch space for merging the floors.
+  LongList reaches = new LongList(); //Scratch space for building 'drawnWith', as 'chunk * chunk count + owner'.
+  boolean[] seen; //The cells that could ever be seen, stored as 'y * width + x'.
+  Visibility visibility; //Which walls could be seen from behind, worked out along with 'seen'.
+  
+  public GalleryMesh(Map map, Visibility v)
+  {
+    this.map = map;
+    seen = v.findSeenCells();
+    visibility = v;
+    
+    chunksAcross = (map.getWidth() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    chunksDown = (map.getHeight() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    chunks = new PShape[chunksAcross * chunksDown];
+    chunkChecked = new boolean[chunks.length];
+    chunkDrawn = new boolean[chunks.length];
+    merged = new boolean[map.getWidth() * map.getHeight()];
+    
+    int circleCount = 0;
+    byte[] row = new byte[map.getWidth()];
+    for(int y = 0; y < map.getHeight(); y++)
+    {
+      map.getRow(y, row);
+      for(int x = 0; x < map.getWidth(); x++)
+      {
+        if (map.floorOf(row[x]) == 3 && isSeen(x, y)) circleCount++;
+      }
+    }
+    circleX = new int[circleCount];
+    circleY = new int[circleCount];
+    circleCount = 0;
+    
+    for(int y = 0; y < map.getHeight(); y++)
+    {
+      for(int x = 0; x < map.getWidth(); x++)
+      {
+        if (!isSeen(x, y)) continue;
+        
+        //Floors with a pattern can't be merged with their neighbours, as a region of the atlas can't be repeated.
+        if (map.floorAt(x,y) == 2)
+        {
+          addFloor(chunkShape(x, y, x, y), textureWaves, x, y, x, y);
+        }
+        else if (map.floorAt(x,y) == 3)
+        {
+          circleX[circleCount] = x;
+          circleY[circleCount] = y;
+          circleCount++;
+        }
+        
+        if (x == map.startX && y == map.startY)
+        {
+          addPlaque(chunkShape(x, y, x, y), x * SZ, y * SZ);
+        }
+      }
+    }
+    
+    //The plain floors, ceilings and walls are merged into as few quads as possible.
+    addPlainFloors(false);
+    addPlainFloors(true);
+    for(Direction d: Direction.values())
+    {
+      addWalls(d, false);
+      addWalls(d, true);
+    }
+    
+    surfaces = createShape(GROUP);
+    for(PShape s: chunks)
+    {
+      if (s == null) continue;
+      s.endShape();
+      surfaces.addChild(s);
+    }
+    buildDrawnWith();
+    merged = null;
+  }
+  
+  int chunkOf(int x, int y)
+  {
+    return (y / CHUNK_SIZE) * chunksAcross + x / CHUNK_SIZE;
+  }
+  
+  PShape chunkShape(int x1, int y1, int x2, int y2)
+  {
+    //Returns the shape to add a quad covering the given cells to, which is the chunk of the first cell. Every chunk the quad
+    //reaches into is noted, so that the shape is drawn when any of them can be seen.
+    int owner = chunkOf(x1, y1);
+    for(int cy = y1 / CHUNK_SIZE; cy <= y2 / CHUNK_SIZE; cy++)
+    {
+      for(int cx = x1 / CHUNK_SIZE; cx <= x2 / CHUNK_SIZE; cx++)
+      {
+        reaches.append((long)(cy * chunksAcross + cx) * chunks.length + owner);
+      }
+    }
+    
+    if (chunks[owner] == null)
+    {
+      PShape s = createShape();
+      s.beginShape(QUADS);
+      s.noStroke();
+      s.textureMode(NORMAL);
+      s.texture(atlas.image);
+      chunks[owner] = s;
+    }
+    return chunks[owner];
+  }
+  
+  void buildDrawnWith()
+  {
+    //Turns the list of chunks reached by each chunk's quads into a list, for each chunk, of the chunks reaching into it.
+    reaches.sort();
+    int[] counts = new int[chunks.length];
+    for(int n = 0; n < reaches.size(); n++)
+    {
+      if (n == 0 || reaches.get(n) != reaches.get(n - 1)) counts[(int)(reaches.get(n) / chunks.length)]++;
+    }
+    drawnWith = new int[chunks.length][];
+    for(int c = 0; c < chunks.length; c++)
+    {
+      drawnWith[c] = new int[counts[c]];
+      counts[c] = 0;
+    }
+    for(int n = 0; n < reaches.size(); n++)
+    {
+      if (n > 0 && reaches.get(n) == reaches.get(n - 1)) continue;
+      int c = (int)(reaches.get(n) / chunks.length);
+      drawnWith[c][counts[c]++] = (int)(reaches.get(n) % chunks.length);
+    }
+    reaches.clear();
+  }
+  
+  void addPlainFloors(boolean ceilings)
+  {
+    //Covers the plain black floors, or all of the ceilings, with rectangles, each as large as it can be while still fitting
+    //the cells left over from those before it.
+    int w = map.getWidth();
+    java.util.Arrays.fill(merged, false);
+    for(int y = 0; y < map.getHeight(); y++)
+    {
+      for(int x = 0; x < w; x++)
+      {
+        if (merged[y * w + x] || !isPlainFloor(x, y, ceilings)) continue;
+        
+        int endX = x;
+        while (endX + 1 < w && !merged[y * w + endX + 1] && isPlainFloor(endX + 1, y, ceilings)) endX++;
+        int endY = y;
+        while (endY + 1 < map.getHeight() && isPlainRow(x, endX, endY + 1, ceilings)) endY++;
+        
+        for(int my = y; my <= endY; my++)
+        {
+          for(int mx = x; mx <= endX; mx++)
+          {
+            merged[my * w + mx] = true;
+          }
+        }
+        if (ceilings) addCeiling(chunkShape(x, y, endX, endY), x, y, endX, endY);
+        else addFloor(chunkShape(x, y, endX, endY), textureBlack, x, y, endX, endY);
+      }
+    }
+  }
+  
+  boolean isSeen(int x, int y)
+  {
+    return seen[y * map.getWidth() + x];
+  }
+  
+  boolean isPlainFloor(int x, int y, boolean ceilings)
+  {
+    //Every cell with a floor has a ceiling.
+    if (!isSeen(x, y)) return false;
+    int floor = map.floorAt(x, y);
+    return ceilings ? floor > 0 : floor > 0 && floor != 2 && floor != 3;
+  }
+  
+  boolean isPlainRow(int x1, int x2, int y, boolean ceilings)
+  {
+    for(int x = x1; x <= x2; x++)
+    {
+      if (merged[y * map.getWidth() + x] || !isPlainFloor(x, y, ceilings)) return false;
+    }
+    return true;
+  }
+  
+  void addFloor(PShape s, AtlasRegion t, int x1, int y1, int x2, int y2)
+  {
+    //Covers the cells from (x1, y1) to (x2, y2). The texture is only repeated correctly across a single cell.
+    float xa = x1 * SZ - HALF_SZ, za = y1 * SZ - HALF_SZ;
+    float xb = x2 * SZ + HALF_SZ, zb = y2 * SZ + HALF_SZ;
+    s.vertex(xa, HALF_SZ, za, t.u(0), t.v(1));
+    s.vertex(xb, HALF_SZ, za, t.u(0), t.v(0));
+    s.vertex(xb, HALF_SZ, zb, t.u(1), t.v(0));
+    s.vertex(xa, HALF_SZ, zb, t.u(1), t.v(1));
+  }
+  
+  void addCeiling(PShape s, int x1, int y1, int x2, int y2)
+  {
+    AtlasRegion t = textureBlack;
+    float xa = x1 * SZ - HALF_SZ, za = y1 * SZ - HALF_SZ;
+    float xb = x2 * SZ + HALF_SZ, zb = y2 * SZ + HALF_SZ;
+    s.vertex(xa, -HALF_SZ, za, t.u(0), t.v(0));
+    s.vertex(xa, -HALF_SZ, zb, t.u(0), t.v(1));
+    s.vertex(xb, -HALF_SZ, zb, t.u(1), t.v(1));
+    s.vertex(xb, -HALF_SZ, za, t.u(1), t.v(0));
+  }
+  
+  void addWalls(Direction d, boolean backs)
+  {
+    //Walls on the same side of neighbouring cells in a line are joined into a single quad. North and south walls run
+    //across the rows, and east and west walls down the columns. The backs of the walls are joined in the same way.
+    boolean across = d == Direction.NORTH || d == Direction.SOUTH;
+    int lines = across ? map.getHeight() : map.getWidth();
+    int length = across ? map.getWidth() : map.getHeight();
+    for(int line = 0; line < lines; line++)
+    {
+      int start = 0;
+      while (start < length)
+      {
+        int x = across ? start : line;
+        int y = across ? line : start;
+        if (!hasWall(x, y, d, backs))
+        {
+          start++;
+          continue;
+        }
+        int end = start;
+        while (end + 1 < length && hasWall(across ? end + 1 : x, across ? y : end + 1, d, backs)) end++;
+        
+        //'addWallRun' starts from the cell at the left of the run, as seen from inside it.
+        boolean reversed = d == Direction.SOUTH || d == Direction.WEST;
+        int first = reversed ? end : start;
+        PShape s = chunkShape(x, y, across ? end : x, across ? y : end);
+        addWallRun(s, across ? first : x, across ? y : first, d, end - start + 1, backs);
+        start = end + 1;
+      }
+    }
+  }
+  
+  boolean hasWall(int x, int y, Direction d, boolean back)
+  {
+    //The front of an artwork's image is drawn with the artwork, but its back is a plain wall like any other.
+    if (!isSeen(x, y)) return false;
+    if (back) return map.closedAt(x, y, d) && visibility.isBackSeen(x, y, d);
+    return map.wallAt(x, y, d);
+  }
+  
+  void addWallRun(PShape s, int x, int y, Direction d, int cells, boolean back)
+  {
+    //Adds the wall along the given side of a line of cells, starting with (x, y) and continuing to its right. The back is
+    //the same quad wound the other way round, to face out of the cells.
+    float cx = x * SZ;
+    float cz = y * SZ;
+    float right = -HALF_SZ + cells * SZ;
+    if (back)
+    {
+      wallVertex(s, textureWhite, cx, cz, d, -HALF_SZ, -HALF_SZ, -HALF_SZ, 0, 0);
+      wallVertex(s, textureWhite, cx, cz, d, -HALF_SZ, HALF_SZ, -HALF_SZ, 0, 1);
+      wallVertex(s, textureWhite, cx, cz, d, right, HALF_SZ, -HALF_SZ, 1, 1);
+      wallVertex(s, textureWhite, cx, cz, d, right, -HALF_SZ, -HALF_SZ, 1, 0);
+      return;
+    }
+    wallVertex(s, textureWhite, cx, cz, d, -HALF_SZ, -HALF_SZ, -HALF_SZ, 0, 0);
+    wallVertex(s, textureWhite, cx, cz, d, right, -HALF_SZ, -HALF_SZ, 1, 0);
+    wallVertex(s, textureWhite, cx, cz, d, right, HALF_SZ, -HALF_SZ, 1, 1);
+    wallVertex(s, textureWhite, cx, cz, d, -HALF_SZ, HALF_SZ, -HALF_SZ, 0, 1);
+  }
+  
+  void wallVertex(PShape s, AtlasRegion t, float cx, float cz, Direction d, float lx, float ly, float lz, float u, float v)
+  {
+    //Converts a point from the space used by 'makeWall', where the wall faces the viewer along the negative z axis, into a
+    //world position on the given side of the cell. This is equivalent to the 'rotateY(-d.getAngle())' used elsewhere.
+    s.vertex(cx - lx * d.getDZ() - lz * d.getDX(), ly, cz + lx * d.getDX() - lz * d.getDZ(), t.u(u), t.v(v));
+  }
+  
+  void addPlaque(PShape s, float cx, float cz)
+  {
+    //The instruction plaque is on the north wall at the start position. The text is part of the face's texture, which is
+    //drawn by 'createInstructionsTexture'.
+    int w1 = PLAQUE_HALF_WIDTH;
+    int h1 = PLAQUE_HALF_HEIGHT;
+    int w2 = PLAQUE_FACE_HALF_WIDTH;
+    int h2 = PLAQUE_FACE_HALF_HEIGHT;
+    int d = PLAQUE_DEPTH;
+    Direction n = Direction.NORTH;
+    
+    wallVertex(s, textureStripes, cx, cz, n, -w1, -h1, -HALF_SZ, 0.25f, 0.25f);
+    wallVertex(s, textureStripes, cx, cz, n, w1, -h1, -HALF_SZ, 0.25f, 0);
+    wallVertex(s, textureStripes, cx, cz, n, w2, -h2, -HALF_SZ + d, 0, 0.25f);
+    wallVertex(s, textureStripes, cx, cz, n, -w2, -h2, -HALF_SZ + d, 0, 0);
+    
+    wallVertex(s, textureStripes, cx, cz, n, -w2, h2, -HALF_SZ + d, 0, 0);
+    wallVertex(s, textureStripes, cx, cz, n, w2, h2, -HALF_SZ + d, 0, 0.25f);
+    wallVertex(s, textureStripes, cx, cz, n, w1, h1, -HALF_SZ, 0.25f, 0);
+    wallVertex(s, textureStripes, cx, cz, n, -w1, h1, -HALF_SZ, 0.25f, 0.25f);
+    
+    wallVertex(s, textureStripes, cx, cz, n, -w1, h1, -HALF_SZ, 0.25f, 0.25f);
+    wallVertex(s, textureStripes, cx, cz, n, -w1, -h1, -HALF_SZ, 0.25f, 0);
+    wallVertex(s, textureStripes, cx, cz, n, -w2, -h2, -HALF_SZ + d, 0, 0.25f);
+    wallVertex(s, textureStripes, cx, cz, n, -w2, h2, -HALF_SZ + d, 0, 0);
+    
+    wallVertex(s, textureStripes, cx, cz, n, w2, h2, -HALF_SZ + d, 0, 0);
+    wallVertex(s, textureStripes, cx, cz, n, w2, -h2, -HALF_SZ + d, 0, 0.25f);
+    wallVertex(s, textureStripes, cx, cz, n, w1, -h1, -HALF_SZ, 0.25f, 0);
+    wallVertex(s, textureStripes, cx, cz, n, w1, h1, -HALF_SZ, 0.25f, 0.25f);
+    
+    wallVertex(s, textureInstructions, cx, cz, n, -w2, -h2, -HALF_SZ + d, 0, 0);
+    wallVertex(s, textureInstructions, cx, cz, n, w2, -h2, -HALF_SZ + d, 1, 0);
+    wallVertex(s, textureInstructions, cx, cz, n, w2, h2, -HALF_SZ + d, 1, 1);
+    wallVertex(s, textureInstructions, cx, cz, n, -w2, h2, -HALF_SZ + d, 0, 1);
+  }
+  
+  void draw(PGraphics g, Visibility v)
+  {
+    if (v.isShowingAll())
+    {
+      g.shape(surfaces);
+      for(int n = 0; n < surfaces.getChildCount(); n++)
+      {
+        instruments.countDraw(surfaces.getChild(n).getVertexCount());
+      }
+      return;
+    }
+    
+    //Draw each chunk reaching into a chunk with a visible cell once.
+    for(int n = 0; n < v.getVisibleCount(); n++)
+    {
+      int cell = v.getVisibleCell(n);
+      int chunk = chunkOf(cell % map.getWidth(), cell / map.getWidth());
+      if (chunkChecked[chunk]) continue;
+      chunkChecked[chunk] = true;
+      for(int owner: drawnWith[chunk])
+      {
+        if (!chunkDrawn[owner])
+        {
+          chunkDrawn[owner] = true;
+          g.shape(chunks[owner]);
+          instruments.countDraw(chunks[owner].getVertexCount());
+        }
+      }
+    }
+    for(int n = 0; n < v.getVisibleCount(); n++)
+    {
+      int cell = v.getVisibleCell(n);
+      int chunk = chunkOf(cell % map.getWidth(), cell / map.getWidth());
+      chunkChecked[chunk] = false;
+      for(int owner: drawnWith[chunk])
+      {
+        chunkDrawn[owner] = false;
+      }
+    }
+  }
+}
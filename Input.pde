@@ -29,8 +29,11 @@ public void mouseClicked()
 {
   if (!actionInProgress && pauseCounter == 0)
   {
-    boolean topRightArea = mouseX > mouseY;
-    boolean topLeftArea = (SZ - mouseX) > mouseY;
+    //The window is divided along its diagonals, whatever its shape.
+    float x = mouseX / (float)width;
+    float y = mouseY / (float)height;
+    boolean topRightArea = x > y;
+    boolean topLeftArea = (1 - x) > y;
     
     if (topRightArea && topLeftArea)
     {
@@ -53,28 +56,39 @@ public void mouseClicked()
 
 public void startForwardStep()
 {
+  //Steps through walls, or off the edge of the floor, are refused.
+  if (!map.canStep((int)posX, (int)posZ, dir))
+  {
+    playSound(sndInaction);
+    return;
+  }
   stepCounter = STEP_FRAMES;
   actionInProgress = true;
-  sndMove.play();
+  playSound(sndMove);
 }
 
 public void startBackwardStep()
 {
+  if (!map.canStep((int)posX, (int)posZ, dir.clockwise().clockwise()))
+  {
+    playSound(sndInaction);
+    return;
+  }
   stepCounter = -STEP_FRAMES;
   actionInProgress = true;
-  sndMove.play();
+  playSound(sndMove);
 }
 
 public void startLeftTurn()
 {
   destAngle = -HALF_PI;
   actionInProgress = true;
-  sndMove.play();
+  playSound(sndMove);
 }
 
 public void startRightTurn()
 {
   destAngle = HALF_PI;
   actionInProgress = true;
-  sndMove.play();
+  playSound(sndMove);
 }
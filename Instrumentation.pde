@@ -0,0 +1,373 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.lang.management.*;
+
+//Measures how long each part of every frame takes, to track down stutter without attaching a profiler. The timings, the
+//number of shapes and vertices drawn, and the Java heap and garbage collector activity are shown under the diagnostics
+//(toggled with ENTER), with the 50th, 95th and 99th percentiles of the last few seconds of frames.
+//Running the sketch with '--metrics <file>' also writes a line for every frame to the file: JSON if its name ends in
+//'.json', otherwise CSV. Relative names are in the sketch folder.
+//Waiting for the graphics card to finish drawing stalls it, so the 'Flush' timing is only measured while the diagnostics
+//are shown or metrics are being written.
+//Once the sketch has warmed up, drawing a frame shouldn't create any new objects, as garbage collection pauses show up as
+//dropped frames on low-memory machines. The memory allocated on the sketch's thread during each frame is measured too, so
+//that anything which does is easy to spot. That includes the instrumentation's own work, so each frame's line of metrics is
+//written at the start of the next frame, once all of its figures are known, and counted in that frame.
+
+//A line of text built up without creating any Strings, so that the diagnostics can be drawn without allocating memory.
+class TextLine
+{
+  char[] chars = new char[256];
+  int length = 0;
+  
+  TextLine clear()
+  {
+    length = 0;
+    return this;
+  }
+  
+  TextLine add(char c)
+  {
+    if (length < chars.length) chars[length++] = c;
+    return this;
+  }
+  
+  TextLine add(String s)
+  {
+    for(int n = 0; n < s.length(); n++)
+    {
+      add(s.charAt(n));
+    }
+    return this;
+  }
+  
+  TextLine add(long value)
+  {
+    if (value < 0)
+    {
+      add('-');
+      value = -value;
+    }
+    int start = length;
+    do
+    {
+      add((char)('0' + value % 10));
+      value /= 10;
+    } while (value > 0);
+    
+    //The digits were added lowest first, so reverse them.
+    for(int a = start, b = length - 1; a < b; a++, b--)
+    {
+      char c = chars[a];
+      chars[a] = chars[b];
+      chars[b] = c;
+    }
+    return this;
+  }
+  
+  TextLine add(float value, int decimals)
+  {
+    long scale = 1;
+    for(int n = 0; n < decimals; n++)
+    {
+      scale *= 10;
+    }
+    long fixed = Math.round(Math.abs((double)value) * scale);
+    if (value < 0 && fixed > 0) add('-');
+    add(fixed / scale);
+    if (decimals > 0)
+    {
+      add('.');
+      for(long digit = scale / 10; digit > 0; digit /= 10)
+      {
+        add((char)('0' + (fixed / digit) % 10));
+      }
+    }
+    return this;
+  }
+  
+  void draw(int line)
+  {
+    //Draws the text on the given line of the diagnostics.
+    text(chars, 0, length, 0, -HALF_SZ + line * TEXT_SIZE);
+  }
+}
+
+//Times one part of the frame, which may be started and stopped more than once per frame.
+class FrameTimer
+{
+  String name;
+  long started;
+  long total;
+  float[] history; //Recent frames' times in milliseconds, oldest overwritten first.
+  
+  FrameTimer(String name, int historySize)
+  {
+    this.name = name;
+    history = new float[historySize];
+  }
+  
+  void begin()
+  {
+    started = System.nanoTime();
+  }
+  
+  void end()
+  {
+    total += System.nanoTime() - started;
+  }
+  
+  float lastMillis(int frame)
+  {
+    return history[frame % history.length];
+  }
+}
+
+class Instrumentation
+{
+  final int HISTORY = 240; //Frames over which percentiles are taken.
+  
+  FrameTimer interval = new FrameTimer("Interval", HISTORY); //From the start of one frame to the start of the next.
+  FrameTimer frame = new FrameTimer("Frame", HISTORY); //All of 'draw', not counting the time Processing spends between frames.
+  FrameTimer movement = new FrameTimer("Movement", HISTORY);
+  FrameTimer gallery = new FrameTimer("Gallery", HISTORY);
+  FrameTimer[] artworks;
+  FrameTimer flush = new FrameTimer("Flush", HISTORY);
+  FrameTimer[] timers;
+  
+  com.sun.management.ThreadMXBean threadBean;
+  long sketchThread;
+  long allocationStart;
+  long measuringCost; //Measuring the allocated memory allocates a few bytes itself, which aren't counted.
+  long[] allocationHistory = new long[HISTORY];
+  
+  int frames = 0;
+  long lastFrameStart = -1;
+  int draws, vertices; //Counted by the code drawing each shape. The artworks' geometry counts as one draw, with no vertices.
+  int[] drawHistory = new int[HISTORY];
+  int[] vertexHistory = new int[HISTORY];
+  
+  GarbageCollectorMXBean[] collectors;
+  long lastCollections, lastCollectionMillis;
+  
+  PrintWriter metrics;
+  boolean json;
+  int metricsWritten = 0; //The number of frames whose line of metrics has been written.
+  
+  float[] sorted = new float[HISTORY]; //Scratch space for working out percentiles.
+  StringBuilder metricsLine = new StringBuilder();
+  char[] metricsChars = new char[1024]; //The line is copied out of the StringBuilder, as printing it would make a String.
+  String[] timerColumns; //The timers' names in the metrics, worked out once for the same reason.
+  TextLine overlayLine = new TextLine();
+  
+  public Instrumentation(ArrayList<Artwork> artworkList, String metricsFile)
+  {
+    artworks = new FrameTimer[artworkList.size()];
+    for(int n = 0; n < artworks.length; n++)
+    {
+      artworks[n] = new FrameTimer(artworkList.get(n).getClass().getSimpleName(), HISTORY);
+    }
+    
+    timers = new FrameTimer[artworks.length + 5];
+    timers[0] = interval;
+    timers[1] = frame;
+    timers[2] = movement;
+    timers[3] = gallery;
+    System.arraycopy(artworks, 0, timers, 4, artworks.length);
+    timers[timers.length - 1] = flush;
+    
+    collectors = ManagementFactory.getGarbageCollectorMXBeans().toArray(new GarbageCollectorMXBean[0]);
+    lastCollections = collections();
+    lastCollectionMillis = collectionMillis();
+    
+    threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    sketchThread = Thread.currentThread().getId();
+    long before = threadBean.getThreadAllocatedBytes(sketchThread);
+    measuringCost = threadBean.getThreadAllocatedBytes(sketchThread) - before;
+    
+    timerColumns = new String[timers.length];
+    for(int n = 0; n < timers.length; n++)
+    {
+      timerColumns[n] = timers[n].name.toLowerCase() + "_ms";
+    }
+    
+    if (metricsFile != null)
+    {
+      //Processing's own 'createWriter' has no buffer in front of the character encoder, which allocates on every write.
+      metrics = new PrintWriter(new BufferedWriter(new OutputStreamWriter(createOutput(sketchPath(metricsFile)), java.nio.charset.StandardCharsets.UTF_8)));
+      json = metricsFile.toLowerCase().endsWith(".json");
+      if (!json)
+      {
+        String header = "frame,millis";
+        for(String c: timerColumns)
+        {
+          header += "," + c;
+        }
+        metrics.println(header + ",draws,vertices,allocated_bytes,heap_used_mb,gc_count,gc_ms");
+      }
+    }
+  }
+  
+  boolean isMeasuringFlush()
+  {
+    return displayDiagnostics || metrics != null;
+  }
+  
+  void beginFrame()
+  {
+    long now = System.nanoTime();
+    if (lastFrameStart >= 0) interval.total = now - lastFrameStart;
+    lastFrameStart = now;
+    frame.started = now;
+    allocationStart = threadBean.getThreadAllocatedBytes(sketchThread);
+    if (metrics != null && metricsWritten < frames)
+    {
+      writeMetrics(metricsWritten++);
+      //The writer is buffered, so it is flushed every so often in case the sketch is killed rather than closed.
+      if (metricsWritten % HISTORY == 0) metrics.flush();
+    }
+  }
+  
+  void countDraw(int vertexCount)
+  {
+    draws++;
+    vertices += vertexCount;
+  }
+  
+  void flushGraphics()
+  {
+    //Makes the renderer send everything drawn so far to the graphics card, and waits for it to be drawn.
+    flush.begin();
+    if (isMeasuringFlush() && g.isGL())
+    {
+      ((PGraphicsOpenGL)g).flush();
+      PGL pgl = beginPGL();
+      pgl.finish();
+      endPGL();
+    }
+    flush.end();
+  }
+  
+  void endFrame()
+  {
+    frame.end();
+    int slot = frames % HISTORY;
+    for(FrameTimer t: timers)
+    {
+      t.history[slot] = t.total / 1000000.0;
+      t.total = 0;
+    }
+    drawHistory[slot] = draws;
+    vertexHistory[slot] = vertices;
+    draws = vertices = 0;
+    
+    //Measured last, so that everything above is counted.
+    allocationHistory[slot] = Math.max(0, threadBean.getThreadAllocatedBytes(sketchThread) - allocationStart - measuringCost);
+    frames++;
+  }
+  
+  long collections()
+  {
+    long count = 0;
+    for(GarbageCollectorMXBean c: collectors)
+    {
+      count += Math.max(0, c.getCollectionCount());
+    }
+    return count;
+  }
+  
+  long collectionMillis()
+  {
+    long time = 0;
+    for(GarbageCollectorMXBean c: collectors)
+    {
+      time += Math.max(0, c.getCollectionTime());
+    }
+    return time;
+  }
+  
+  float heapUsedMB()
+  {
+    Runtime r = Runtime.getRuntime();
+    return (r.totalMemory() - r.freeMemory()) / (1024f * 1024f);
+  }
+  
+  void writeMetrics(int frameNumber)
+  {
+    //The garbage collector figures are for the time since the last line was written.
+    int slot = frameNumber % HISTORY;
+    long count = collections();
+    long time = collectionMillis();
+    
+    StringBuilder line = metricsLine;
+    line.setLength(0);
+    if (json)
+    {
+      line.append("{\"frame\":").append(frameNumber).append(",\"millis\":").append(millis());
+      for(int n = 0; n < timers.length; n++)
+      {
+        line.append(",\"").append(timerColumns[n]).append("\":").append(timers[n].history[slot]);
+      }
+      line.append(",\"draws\":").append(drawHistory[slot]).append(",\"vertices\":").append(vertexHistory[slot]);
+      line.append(",\"allocated_bytes\":").append(allocationHistory[slot]);
+      line.append(",\"heap_used_mb\":").append(heapUsedMB());
+      line.append(",\"gc_count\":").append(count - lastCollections).append(",\"gc_ms\":").append(time - lastCollectionMillis).append("}");
+    }
+    else
+    {
+      line.append(frameNumber).append(',').append(millis());
+      for(FrameTimer t: timers)
+      {
+        line.append(',').append(t.history[slot]);
+      }
+      line.append(',').append(drawHistory[slot]).append(',').append(vertexHistory[slot]);
+      line.append(',').append(allocationHistory[slot]);
+      line.append(',').append(heapUsedMB());
+      line.append(',').append(count - lastCollections).append(',').append(time - lastCollectionMillis);
+    }
+    if (metricsChars.length < line.length()) metricsChars = new char[line.length() * 2];
+    line.getChars(0, line.length(), metricsChars, 0);
+    metrics.write(metricsChars, 0, line.length());
+    metrics.println();
+    
+    lastCollections = count;
+    lastCollectionMillis = time;
+  }
+  
+  float percentile(FrameTimer t, float p)
+  {
+    int count = min(frames, HISTORY);
+    if (count == 0) return 0;
+    System.arraycopy(t.history, 0, sorted, 0, count);
+    java.util.Arrays.sort(sorted, 0, count);
+    return sorted[min(count - 1, (int)(p * count))];
+  }
+  
+  int drawOverlay(int line)
+  {
+    //Called from 'drawDiagnostics' to add the timings below its other lines. Returns the next free line.
+    int last = max(0, frames - 1);
+    TextLine t = overlayLine;
+    for(int n = 0; n < timers.length; n++)
+    {
+      if (timers[n] == flush && !isMeasuringFlush()) continue;
+      t.clear().add(timers[n].name).add(": ").add(timers[n].lastMillis(last), 2).add(" ms   p50 ").add(percentile(timers[n], 0.5), 2);
+      t.add("   p95 ").add(percentile(timers[n], 0.95), 2).add("   p99 ").add(percentile(timers[n], 0.99), 2).draw(line++);
+    }
+    t.clear().add("Draws: ").add(drawHistory[last % HISTORY]).add("   Vertices: ").add(vertexHistory[last % HISTORY]).draw(line++);
+    t.clear().add("Allocated: ").add(allocationHistory[last % HISTORY]).add(" bytes this frame").draw(line++);
+    t.clear().add("Heap: ").add(heapUsedMB(), 1).add(" / ").add(Runtime.getRuntime().maxMemory() / (1024f * 1024f), 1).add(" MB   GC: ");
+    t.add(collections()).add(" (").add(collectionMillis()).add(" ms)").draw(line++);
+    return line;
+  }
+  
+  void close()
+  {
+    //Called from the sketch's 'dispose' when it closes. The last frame's line hasn't been written yet, and the rest may still
+    //be waiting in the writer's buffer.
+    if (metrics == null) return;
+    if (metricsWritten < frames) writeMetrics(metricsWritten++);
+    metrics.close();
+    metrics = null;
+  }
+}
@@ -1,99 +1,174 @@
 class Map
-{ 
-  // The gallery layout is described in a string for ease of input. This is converted to a 2-dimensional array in the
-  // map object's constructor, as this is more efficient for the sketch to read from during runtime.
-  // Had the gallery been larger and more complex geometrically it would likely have been better to import it
-  // from a file made with an external editor, such as Blender.
-  
-  private int mapWidth = 12, mapHeight = 15;
-  private String mapSetupData =
-  "            " +
-  "##---       " +
-  "w#####      " +
-  "w#mmmm###E# " +
-  "w#mmmm #### " +
-  "##mmm# F### " +
-  " #     ###D " +
-  " ##A####B## " +
-  " C####    # " +
-  " #####S####-" +
-  "   #   ####-" +
-  "  #########-" +
-  "  ######### " +
-  "----------# " +
-  "            ";
-  
-  //This function is used to read the string in the constructor method.
-  private char mapCharAt(int x, int y)
+{
+  // The gallery layout is read from a text file in the sketch's data folder (see 'gallery.map' for a description of the
+  // format), so that new galleries can be made without changing the sketch. The file is read a line at a time, and
+  // converted as it goes into a single flat array of cells, one byte each, stored a row at a time. This is compact enough
+  // for very large galleries, and efficient for the sketch to read from during runtime.
+  
+  private int mapWidth, mapHeight;
+  
+  //This function is used to read the layout rows in the constructor method.
+  private char mapCharAt(String row, int x)
   {
-    if (x < 0 || x >= mapWidth || y < 0 || y >= mapHeight) return ' ';
-    return mapSetupData.charAt(y * mapWidth + x);
+    if (row == null || x < 0 || x >= mapWidth || x >= row.length()) return ' ';
+    return row.charAt(x);
   }
+  //The low 4 bits of a cell hold its floor type, and the high 4 bits its walls, in the same order as the Directions.
+  private static final int FLOOR_BITMASK = 15;
   private static final int NORTH_BITMASK = 16, EAST_BITMASK = 32, SOUTH_BITMASK = 64, WEST_BITMASK = 128;
-  private short[][] mapData = new short[mapWidth][mapHeight];
+  private byte[] mapData;
   
   public int startX, startY;
   public ArrayList<Artwork> artworks = new ArrayList<Artwork>();
   
-  public Map()
+  //The edges the artworks' images hang on, stored as '(y * width + x) * 4 + direction' in order, so they can be searched.
+  //There are only a few, so they aren't worth a byte for every cell.
+  private int[] imageEdges;
+  
+  //The artwork declarations from the file's header, indexed by the letter marking their position in the layout.
+  private HashMap<Character, String[]> artworkTypes = new HashMap<Character, String[]>();
+  private boolean withArtworks;
+  
+  public Map(String filename)
   {
-    //The map data is built from the String setup data when the Map object is created.
+    this(filename, true);
+  }
+  
+  public Map(String filename, boolean withArtworks)
+  {
+    //Without the artworks, only the layout is read. Their cells are still marked, but the artworks themselves aren't made,
+    //as their shapes need the renderer and the textures. The benchmark uses this to measure the map without a window.
+    this.withArtworks = withArtworks;
+    BufferedReader reader = createReader(filename);
+    if (reader == null)
+    {
+      throw new RuntimeException("The gallery map '" + filename + "' could not be opened.");
+    }
     
-    for(int y = 0; y < mapHeight; y++)
+    try
     {
-      for(int x = 0; x < mapWidth; x++)
+      //First the header, up to the 'layout' line.
+      String line;
+      while ((line = reader.readLine()) != null)
       {
-        switch(mapCharAt(x, y))
+        String[] tokens = splitTokens(line);
+        if (tokens.length == 0 || tokens[0].startsWith(";")) continue;
+        
+        if (tokens[0].equals("size") && tokens.length == 3)
+        {
+          mapWidth = Integer.parseInt(tokens[1]);
+          mapHeight = Integer.parseInt(tokens[2]);
+        }
+        else if (tokens[0].equals("artwork") && (tokens.length == 4 || tokens.length == 7) && tokens[1].length() == 1)
+        {
+          artworkTypes.put(tokens[1].charAt(0), tokens);
+        }
+        else if (tokens[0].equals("layout"))
+        {
+          break;
+        }
+        else
         {
-          case '#': //A standard walkable tile
-            mapData[x][y] = 1;
-            if (mapCharAt(x,y-1) == ' ') mapData[x][y] += NORTH_BITMASK;
-            if (mapCharAt(x+1,y) == ' ') mapData[x][y] += EAST_BITMASK;
-            if (mapCharAt(x,y+1) == ' ') mapData[x][y] += SOUTH_BITMASK;
-            if (mapCharAt(x-1,y) == ' ') mapData[x][y] += WEST_BITMASK;
-            break;
-          case 'm': //Tile with wave pattern floor.
-            mapData[x][y] = 2;
-            if (mapCharAt(x,y-1) == ' ') mapData[x][y] += NORTH_BITMASK;
-            if (mapCharAt(x+1,y) == ' ') mapData[x][y] += EAST_BITMASK;
-            if (mapCharAt(x,y+1) == ' ') mapData[x][y] += SOUTH_BITMASK;
-            if (mapCharAt(x-1,y) == ' ') mapData[x][y] += WEST_BITMASK;
-            break;
-          case 'w': //Tile with west side wall only.
-            mapData[x][y] += WEST_BITMASK;
-            break;
-          case 'S': //Player start position
-            mapData[x][y] = 1;
-            mapData[x][y] += SOUTH_BITMASK + EAST_BITMASK + NORTH_BITMASK;
-            startX = x;
-            startY = y;
-            break;
-          case 'A':
-            mapData[x][y] = 3;
-            artworks.add(new ArtMovementInSquares(x, y, Direction.NORTH));
-            break;
-          case 'B':
-            mapData[x][y] = 3;
-            artworks.add(new ArtIntake(x, y, Direction.SOUTH));
-            break;
-          case 'C':
-            mapData[x][y] = 3;
-            artworks.add(new ArtOpening(x, y, Direction.WEST)); 
-            break;
-          case 'D':
-            mapData[x][y] = 3;
-            artworks.add(new ArtFall(x, y, Direction.EAST));
-            break;
-          case 'E':
-            mapData[x][y] = 3;
-            artworks.add(new ArtHero(x, y, Direction.NORTH)); 
-            break;    
-          case 'F':
-            mapData[x][y] = 3;
-            artworks.add(new ArtClimax(x, y, Direction.WEST)); 
+          throw new RuntimeException("Unrecognised line in the gallery map '" + filename + "': " + line);
         }
       }
+      
+      if (mapWidth <= 0 || mapHeight <= 0)
+      {
+        throw new RuntimeException("The gallery map '" + filename + "' has no 'size' before its layout.");
+      }
+      mapData = new byte[mapWidth * mapHeight];
+      
+      //Each row's walls depend on the rows either side of it, so the rows are read one ahead of the one being built.
+      String above = null;
+      String row = reader.readLine();
+      for(int y = 0; y < mapHeight; y++)
+      {
+        String below = y + 1 < mapHeight ? reader.readLine() : null;
+        buildRow(y, above, row, below);
+        above = row;
+        row = below;
+      }
+      
+      reader.close();
+      
+      imageEdges = new int[artworks.size()];
+      for(int n = 0; n < imageEdges.length; n++)
+      {
+        Artwork aw = artworks.get(n);
+        imageEdges[n] = (aw.y * mapWidth + aw.x) * 4 + aw.facingDir.ordinal();
+      }
+      java.util.Arrays.sort(imageEdges);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("The gallery map '" + filename + "' could not be read.", e);
+    }
+  }
+  
+  private void buildRow(int y, String above, String row, String below)
+  {
+    for(int x = 0; x < mapWidth; x++)
+    {
+      char c = mapCharAt(row, x);
+      int cell = 0;
+      switch(c)
+      {
+        case '#': //A standard walkable tile
+          cell = 1;
+          if (mapCharAt(above,x) == ' ') cell += NORTH_BITMASK;
+          if (mapCharAt(row,x+1) == ' ') cell += EAST_BITMASK;
+          if (mapCharAt(below,x) == ' ') cell += SOUTH_BITMASK;
+          if (mapCharAt(row,x-1) == ' ') cell += WEST_BITMASK;
+          break;
+        case 'm': //Tile with wave pattern floor.
+          cell = 2;
+          if (mapCharAt(above,x) == ' ') cell += NORTH_BITMASK;
+          if (mapCharAt(row,x+1) == ' ') cell += EAST_BITMASK;
+          if (mapCharAt(below,x) == ' ') cell += SOUTH_BITMASK;
+          if (mapCharAt(row,x-1) == ' ') cell += WEST_BITMASK;
+          break;
+        case 'w': //Tile with west side wall only.
+          cell = WEST_BITMASK;
+          break;
+        case 'S': //Player start position
+          cell = 1;
+          cell += SOUTH_BITMASK + EAST_BITMASK + NORTH_BITMASK;
+          startX = x;
+          startY = y;
+          break;
+        default:
+          if (artworkTypes.containsKey(c))
+          {
+            cell = 3;
+            if (withArtworks) artworks.add(createArtwork(artworkTypes.get(c), x, y));
+          }
+      }
+      mapData[y * mapWidth + x] = (byte)cell;
+    }
+  }
+  
+  private Artwork createArtwork(String[] tokens, int x, int y)
+  {
+    Direction dir = Direction.valueOf(tokens[3].toUpperCase());
+    Artwork artwork;
+    
+    String name = tokens[2];
+    if (name.equals("MovementInSquares")) artwork = new ArtMovementInSquares(x, y, dir);
+    else if (name.equals("Intake")) artwork = new ArtIntake(x, y, dir);
+    else if (name.equals("Opening")) artwork = new ArtOpening(x, y, dir);
+    else if (name.equals("Fall")) artwork = new ArtFall(x, y, dir);
+    else if (name.equals("Hero")) artwork = new ArtHero(x, y, dir);
+    else if (name.equals("Climax")) artwork = new ArtClimax(x, y, dir);
+    else throw new RuntimeException("Unknown artwork '" + name + "' in the gallery map.");
+    
+    if (tokens.length == 7) //The default teleport position has been overridden.
+    {
+      artwork.teleportX = Integer.parseInt(tokens[4]);
+      artwork.teleportY = Integer.parseInt(tokens[5]);
+      artwork.teleportDir = Direction.valueOf(tokens[6].toUpperCase());
     }
+    return artwork;
   }
   
   public int getWidth() {return mapWidth;}
@@ -101,22 +176,61 @@ class Map
   
   public int floorAt(int x, int y)
   {
-    return mapData[x][y] & 15;
+    return mapData[y * mapWidth + x] & FLOOR_BITMASK;
   }
   
   public boolean wallAt(int x, int y, Direction d)
   {
-    switch(d)
-    {
-      case NORTH:
-        return (mapData[x][y] & NORTH_BITMASK) != 0;
-      case EAST:
-        return (mapData[x][y] & EAST_BITMASK) != 0;
-      case SOUTH:
-        return (mapData[x][y] & SOUTH_BITMASK) != 0;
-      case WEST:
-        return (mapData[x][y] & WEST_BITMASK) != 0;
-    }
-    return false;
-  } 
+    return (mapData[y * mapWidth + x] & (NORTH_BITMASK << d.ordinal())) != 0;
+  }
+  
+  public boolean imageAt(int x, int y, Direction d)
+  {
+    //Whether an artwork's image hangs on the given side of the cell. Like a wall, it can't be seen or walked through.
+    return java.util.Arrays.binarySearch(imageEdges, (y * mapWidth + x) * 4 + d.ordinal()) >= 0;
+  }
+  
+  public boolean closedAt(int x, int y, Direction d)
+  {
+    //Whether there is a wall or an image on the given side of the cell.
+    return wallAt(x, y, d) || imageAt(x, y, d);
+  }
+  
+  public boolean contains(int x, int y)
+  {
+    return x >= 0 && x < mapWidth && y >= 0 && y < mapHeight;
+  }
+  
+  public boolean isOpen(int x, int y, Direction d)
+  {
+    //Whether the edge between a cell and its neighbour in the given direction can be seen through. A wall or an image can
+    //be recorded on the cell at either side of it.
+    int nx = x + d.getDX();
+    int ny = y + d.getDZ();
+    if (!contains(x, y) || !contains(nx, ny)) return false;
+    return !closedAt(x, y, d) && !closedAt(nx, ny, d.clockwise().clockwise());
+  }
+  
+  public boolean canStep(int x, int y, Direction d)
+  {
+    //Whether the user can walk from a cell to its neighbour, which needs a floor to stand on.
+    return isOpen(x, y, d) && floorAt(x + d.getDX(), y + d.getDZ()) > 0;
+  }
+  
+  //For reading large parts of the map at once, whole rows of cells can be copied out, and the floor and walls read from
+  //each cell with the functions below.
+  public void getRow(int y, byte[] cells)
+  {
+    System.arraycopy(mapData, y * mapWidth, cells, 0, mapWidth);
+  }
+  
+  public int floorOf(byte cell)
+  {
+    return cell & FLOOR_BITMASK;
+  }
+  
+  public boolean wallOf(byte cell, Direction d)
+  {
+    return (cell & (NORTH_BITMASK << d.ordinal())) != 0;
+  }
 }
@@ -7,7 +7,7 @@ void doStepMovement()
     {
       artEffectCounter = ART_EFFECT_FRAMES;
       actionInProgress = true;
-      sndTransform.play();
+      playSound(sndTransform);
       posX = currentArtEffect.teleportX;
       posZ = currentArtEffect.teleportY;
       dir = currentArtEffect.teleportDir;
@@ -86,13 +86,14 @@ void doStepMovement()
     
     if (actionInProgress == false) //Check for triggering an art effect
     {
-      for(Artwork artwork: map.artworks)
+      for(int n = 0; n < map.artworks.size(); n++)
       {
+        Artwork artwork = map.artworks.get(n);
         if (posX == artwork.x && posZ == artwork.y && dir == artwork.facingDir)
         {
           pauseCounter = PAUSE_FRAMES;
           currentArtEffect = artwork;
-          sndArt.play();
+          playSound(sndArt);
         }
       }   
     }
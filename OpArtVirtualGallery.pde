@@ -1,8 +1,17 @@
 import processing.sound.*;
 
-//These constants can be adjusted for better performance. Lowering 'SZ' may make the sketch run better on low-spec machines. 
-final int FRAME_RATE = 25;
-final int SZ = 800; //This is the size of a unit of length in the sketch, by which all other measurements in the gallery are derived. It is also the size of the viewport.
+//These constants can be adjusted for better performance. Lowering 'TEXTURE_SZ' may make the sketch run better on low-spec
+//machines, as may running it with '--dynamic-resolution' (see Viewport), or with '--cull-back-faces', which saves the
+//graphics card drawing the backs of walls and floors that are hidden anyway. Machines without a graphics card may run it
+//better with '--software', which draws it on all of the CPU's cores instead (see SoftwareRenderer).
+final int FRAME_RATE = 25; //How many times a second the gallery is updated. All movement is measured in these steps.
+final int RENDER_FRAME_RATE = 60; //The most frames drawn in a second. See Simulation for how the two rates are kept apart.
+final int SZ = 800; //This is the size of a unit of length in the sketch, by which all other measurements in the gallery are derived. It is also the default size of the window (see Viewport).
+int TEXTURE_SZ = 768; //The size in pixels of the textures and artworks' wall images, whatever the size of the window. Lowering this saves memory. Running with '--texture-size <pixels>' overrides it, e.g. '--texture-size 1024' for sharper images where memory allows, as powers of two give the cleanest mipmaps.
+
+//The file in the sketch's data folder describing the layout of the gallery. Another can be given by running the sketch with
+//'--map <file>'.
+final String MAP_FILE = "gallery.map";
 
 //These control the duration of the various actions in the sketch (in seconds)
 final float STEP_DURATION = 0.5; //Time taken to step forwards or backwards
@@ -10,8 +19,9 @@ final float TURN_DURATION = 0.5; //Time take to turn 90 degress
 final float PAUSE_DURATION = 0.5; //Pause duration just before starting the art effect.
 final float ART_EFFECT_DURATION = 2.0; //Time taken for the art effect.
 
-//These constants are derived from the above.
+//These constants are derived from the above, and are measured in steps of the simulation.
 final int HALF_SZ = SZ / 2;
+float TEXTURE_SCALE; //Texture pixels per unit of length in the gallery, worked out in 'settings' once TEXTURE_SZ is known.
 final int STEP_FRAMES = (int)(STEP_DURATION * FRAME_RATE);
 final int TURN_FRAMES = (int)(TURN_DURATION * FRAME_RATE);
 final int ART_EFFECT_FRAMES = (int)(ART_EFFECT_DURATION * FRAME_RATE);
@@ -37,48 +47,176 @@ Artwork currentArtEffect = null;
 boolean actionInProgress = false;
 boolean displayDiagnostics = false;
 
-//The Map object in which the gallery's layout data is stored.
+//Steps the above at a fixed rate, and blends between the steps to give the view drawn in each frame.
+SimulationClock simulation;
+ViewState view;
+
+//The Map object in which the gallery's layout data is stored, and the retained geometry built from it.
 Map map;
+GalleryMesh galleryMesh;
+Visibility visibility;
+
+//Draws the textures and artworks' wall images, in the background where possible.
+PreRenderer preRenderer;
+
+//Textures used as a basis for constructing some of the art pieces. The version is used by the texture cache, and must be
+//increased whenever these would be drawn differently. They are all packed into a single TextureAtlas, along with plain
+//white and black for the walls and floors.
+final int TEXTURE_VERSION = 1;
+TextureAtlas atlas;
+AtlasRegion textureWaves;
+AtlasRegion textureWaveRow;
+AtlasRegion textureStripes;
+AtlasRegion textureInstructions;
+AtlasRegion textureWhite;
+AtlasRegion textureBlack;
 
-//Textures used as a basis for constructing some of the art pieces
-PImage[] textureCircles = new PImage[4];
-PImage textureWaves;
-PImage textureStripes;
+//Draws the animated circles on the floors marking the artworks.
+CircleShader circleShader;
 
 SoundFile sndMove, sndInaction, sndArt, sndTransform;
 
+//Saves every frame when the sketch is run with '--export'. Otherwise this is null.
+FrameExporter exporter;
+
+//Timings and other measurements of each frame, shown with the diagnostics.
+Instrumentation instruments;
+
+//Chooses the resolution the view is drawn at.
+DynamicResolution resolution;
+
+//Draws the gallery without OpenGL geometry when the sketch is run with '--raycast'. Otherwise this is null.
+RaycastRenderer raycaster;
+
+//Whether OpenGL skips faces seen from behind, set by running the sketch with '--cull-back-faces'.
+boolean cullBackFaces = false;
+
+//Whether the sketch was run with '--software', so that nothing is drawn with OpenGL (see SoftwareRenderer).
+boolean softwareRendering = false;
+
 void settings()
 {
-  size(SZ, SZ, P3D);
+  String textureSize = argumentAfter("--texture-size");
+  if (textureSize != null && textureSize.matches("[0-9]+")) TEXTURE_SZ = max(16, parseInt(textureSize));
+  TEXTURE_SCALE = TEXTURE_SZ / (float)SZ;
+  softwareRendering = argumentGiven("--software");
+  sizeWindow();
+}
+
+static public void main(String[] passedArgs)
+{
+  //Processing writes this for itself if the sketch has no 'main', but the headless benchmark (see Benchmark) has to run
+  //before Processing checks for a display, which it does before anything in the sketch is called.
+  String[] appletArgs = new String[] {"OpArtVirtualGallery"};
+  if (passedArgs != null) appletArgs = concat(appletArgs, passedArgs);
+  OpArtVirtualGallery sketch = new OpArtVirtualGallery();
+  sketch.args = passedArgs;
+  if (sketch.headlessBenchmarkRequested())
+  {
+    sketch.sketchPath(); //Works out the sketch's folder, as Processing would when starting it, so files can be read.
+    sketch.runHeadlessBenchmarks();
+    System.exit(0);
+  }
+  PApplet.main(appletArgs);
+}
+
+public PGraphics createGraphics(int w, int h, String renderer)
+{
+  //With '--software', whatever would be drawn with P3D is drawn by a SoftwareGraphics instead.
+  if (softwareRendering && renderer.equals(P3D)) return new SoftwareGraphics(w, h);
+  return super.createGraphics(w, h, renderer);
+}
+
+public PShape createShape()
+{
+  //JAVA2D's shapes can't hold the GalleryMesh's or the artworks' 3D geometry, so with '--software' SoftwareShapes are used.
+  if (softwareRendering) return new SoftwareShape(PShape.GEOMETRY);
+  return super.createShape();
+}
+
+public PShape createShape(int type)
+{
+  if (softwareRendering && type == GROUP) return new SoftwareShape(GROUP);
+  return super.createShape(type);
 }
 
 void setup()
 {
-  frameRate(FRAME_RATE);
-  camera(0,0,0,0,0,-HALF_SZ,0,1,0);
-  textureMode(NORMAL);
-  noStroke();
+  frameRate(RENDER_FRAME_RATE);
+  hint(ENABLE_TEXTURE_MIPMAPS); //The default, but the floors and walls shimmer at a distance without them.
+  surface.setResizable(true);
+  setUpGraphics(g);
+  
+  //The textures which don't need OpenGL are drawn by the pre-renderer's worker threads while the 'Waves' texture is drawn here.
+  //If they were saved in the texture cache on an earlier launch, they are read from there instead.
+  preRenderer = new PreRenderer(new TextureCache(new File(dataPath("cache"))));
+  Future<PImage> stripes = preRenderer.submit("Stripes", TEXTURE_VERSION, new Callable<PImage>()
+  {
+    public PImage call() {return createStripesTexture();}
+  });
+  Future<PImage> instructions = preRenderer.submit("Instructions" + TEXT_SIZE, TEXTURE_VERSION, new Callable<PImage>()
+  {
+    public PImage call() {return createInstructionsTexture();}
+  });
+  
+  atlas = new TextureAtlas();
+  PImage waves = preRenderer.cached("Waves", TEXTURE_VERSION, new Callable<PImage>()
+  {
+    public PImage call() {return createWavesTexture();}
+  });
+  textureWaves = atlas.add(waves);
+  textureWaveRow = atlas.add(createWaveRowTexture(waves));
+  textureStripes = atlas.add(preRenderer.await(stripes));
+  textureInstructions = atlas.add(preRenderer.await(instructions));
+  textureWhite = atlas.addColour(color(255));
+  textureBlack = atlas.addColour(color(0));
+  atlas.pack();
+  if (!softwareRendering) circleShader = new CircleShader();
   
-  PGraphics g;
+  //Initalise the map object, which stores the layout of the gallery.
+  map = new Map(mapFile());
+  posX = map.startX;
+  posZ = map.startY;  
+  simulation = new SimulationClock();
+  view = simulation.rendered;
+  instruments = new Instrumentation(map.artworks, argumentAfter("--metrics"));
+  resolution = new DynamicResolution(argumentGiven("--dynamic-resolution"));
+  cullBackFaces = argumentGiven("--cull-back-faces");
   
-  //Create the textures for the animating circles used to mark the position of an artwork
-  for(int n = 0; n < 4; n++)
+  //The artworks' wall images are drawn in the background while the gallery is shown.
+  preRenderer.start(map.artworks);
+  
+  String exportScript = argumentAfter("--export");
+  if (exportScript != null)
+  {
+    //When exporting frames, every image needs to be ready before the first frame, and frames are drawn as fast as possible.
+    String exportFolder = argumentAfter("--export-to");
+    exporter = new FrameExporter(exportScript, new File(sketchPath(exportFolder != null ? exportFolder : "export")));
+    preRenderer.finish();
+    resolution.enabled = false;
+    frameRate(1000);
+  }
+  else
   {
-    g = createGraphics(SZ,SZ);
-    g.beginDraw();
-    g.noStroke();
-    g.background(0);
-    g.fill(255);
-    g.ellipse(SZ / 2, SZ / 2, SZ/10 * (n+1), SZ/10 * (n+1));
-    g.fill(0);
-    g.ellipse(SZ / 2, SZ / 2, SZ/10 * n, SZ/10 * n);
-    g.endDraw();
-    textureCircles[n] = g;
+    sndMove = new SoundFile(this, "movement.wav");
+    sndInaction = new SoundFile(this, "no_action.wav");
+    sndArt = new SoundFile(this, "FX01.aif");
+    sndTransform = new SoundFile(this, "sfx_sounds_interaction8.wav");
   }
   
+  if (benchmarkRequested())
+  {
+    runBenchmarks();
+    exit();
+  }
+}
+
+PImage createStripesTexture()
+{
   //Create the 'Stripes' texture image. This is used in 'Opening' and 'Climax'.
-  g = createGraphics(SZ,SZ);
+  PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ);
   g.beginDraw();
+  g.scale(TEXTURE_SCALE);
   g.noStroke();
   g.background(255);
   g.fill(0);
@@ -87,216 +225,326 @@ void setup()
     g.rect(n * SZ / 16, 0, SZ/32, SZ);
   }
   g.endDraw();
-  textureStripes = g;
-  
-  //Create the 'Waves' texture image. This is used in 'Intake' and 'Fall'.
-  g = createGraphics(SZ,SZ, P3D);
+  return g;
+}
+
+PImage createInstructionsTexture()
+{
+  //Create the face of the instruction plaque, with the instructions written on it. This is the size of the face in the
+  //GalleryMesh, with the text where it would be if it were written directly onto the plaque.
+  int w = 2 * PLAQUE_FACE_HALF_WIDTH;
+  int h = 2 * PLAQUE_FACE_HALF_HEIGHT;
+  PGraphics g = createGraphics(round(w * TEXTURE_SCALE), round(h * TEXTURE_SCALE));
   g.beginDraw();
+  g.scale(TEXTURE_SCALE);
+  g.background(255);
+  g.fill(0);
+  g.textSize(TEXT_SIZE);
+  g.textAlign(CENTER);
+  g.text(INTRO_MESSAGE, w / 2, h / 2 - TEXT_SIZE * 7);
+  g.endDraw();
+  return g;
+}
+
+PImage createWavesTexture()
+{
+  //Create the 'Waves' texture image. This is used in 'Intake', and in 'Fall' by way of the 'WaveRow' texture. It is drawn
+  //with P3D, but copied into a plain image so that it can also be drawn from the pre-renderer's worker threads. Its waves
+  //are curved, which the SoftwareGraphics can't draw, so with '--software' it is drawn with JAVA2D.
+  PGraphics g = createGraphics(TEXTURE_SZ,TEXTURE_SZ, softwareRendering ? JAVA2D : P3D);
+  g.beginDraw();
+  g.scale(TEXTURE_SCALE);
   for(int n = -SZ/8; n <= SZ + SZ/8; n += SZ/4)
   {
     drawWave(g, n, SZ/8);
   }
   g.endDraw();
-  textureWaves = g;
-  
-  //Initalise the map object, which stores the layout of the gallery.
-  map = new Map();
-  posX = map.startX;
-  posZ = map.startY;  
-  
-  sndMove = new SoundFile(this, "movement.wav");
-  sndInaction = new SoundFile(this, "no_action.wav");
-  sndArt = new SoundFile(this, "FX01.aif");
-  sndTransform = new SoundFile(this, "sfx_sounds_interaction8.wav");
+  return g.get();
+}
+
+PImage createWaveRowTexture(PImage waves)
+{
+  //Create a row of 16 copies of the 'Waves' texture side by side, each an eighth of its height, for 'Fall'. This is quick
+  //enough to draw that it isn't cached.
+  PGraphics g = createGraphics(TEXTURE_SZ, TEXTURE_SZ / 8);
+  g.beginDraw();
+  for(int n = 0; n < 16; n++)
+  {
+    g.image(waves, n * TEXTURE_SZ / 16, 0, TEXTURE_SZ / 16, TEXTURE_SZ / 8);
+  }
+  g.endDraw();
+  return g;
 }
 
 void draw()
 { 
+  instruments.beginFrame();
+  setUpGraphics(g); //Resizing the window puts these settings back to their defaults.
   background(255);
   
-  doStepMovement();
+  instruments.movement.begin();
+  if (exporter != null)
+  {
+    exporter.update();
+    simulation.advanceOneStep();
+  }
+  else
+  {
+    simulation.advance();
+  }
+  instruments.movement.end();
   
-  pushMatrix();
+  prepareGallery();
+  updateVisibility();
+  preRenderer.update(visibility);
   
-  float cameraZ = (height/2.0) / tan(fieldOfView/2.0);
-  perspective(fieldOfView, viewportAspect, cameraZ/10.0, cameraZ*200.0);
+  resolution.update();
+  if (raycaster != null && raycaster.canDrawView())
+  {
+    raycaster.drawView(resolution.renderWidth(), resolution.renderHeight());
+  }
+  else
+  {
+    PGraphics viewGraphics = resolution.beginView();
+    drawView(viewGraphics);
+    resolution.endView(viewGraphics);
+  }
   
-  //Matrix transformations based on the user's position and orientation.
-  rotateX(cameraTilt);
-  rotateZ(cameraRoll);
-  rotateY(cameraPan);
-  translate(0,0,-forwardPositionModifier);
-  rotateY(dir.getAngle() + angle);
-  translate(-(posX * SZ), 0, -(posZ * SZ));
+  instruments.flushGraphics();
+  
+  if (displayDiagnostics)
+  {
+    drawDiagnostics();
+  }
+  
+  instruments.endFrame();
+  
+  if (exporter != null)
+  {
+    exporter.captureFrame();
+    if (exporter.isFinished())
+    {
+      exporter.finish();
+      exit();
+    }
+  }
+} 
+
+public void dispose()
+{
+  //Called by Processing when the sketch closes, however it is closed. Methods registered with 'registerMethod' can't be
+  //used for this, as Processing can't call them on the sketch's inner classes.
+  if (instruments != null) instruments.close();
+  super.dispose();
+}
+
+void drawView(PGraphics g)
+{
+  //Draws the gallery as seen by the user, into the window or into DynamicResolution's offscreen buffer.
+  g.pushMatrix();
+  applyView(g);
+  if (cullBackFaces) setFaceCulling(g, true);
   
   if (currentArtEffect instanceof ArtMovementInSquares && pauseCounter == 0)
   {
     //This is a fix for 'Movement in Squares', to hide other geometry while the art effect is running.
     //The rest of the gallery gets in the way otherwise, due to the extreme camera movement. 
-    currentArtEffect.makeGeometry(g);
+    drawGeometry(g, map.artworks.indexOf(currentArtEffect));
   }
   else
   { 
     //Make the walls, floors and ceilings of the gallery
+    instruments.gallery.begin();
     makeGallery(g);
+    instruments.gallery.end();
  
     //Make each art piece, consisting of the wall image, and its corresponding geometry in the gallery.
-    for(Artwork aw: map.artworks)
+    for(int n = 0; n < map.artworks.size(); n++)
     {
-      g.pushMatrix();
-      g.translate(SZ * aw.x, 0, SZ * aw.y);
-      rotateY(-aw.facingDir.getAngle());
-      makeWall(g, aw.flatImage);
-      g.popMatrix();
+      Artwork aw = map.artworks.get(n);
+      if (visibility.isVisible(aw.x, aw.y))
+      {
+        instruments.gallery.begin();
+        g.pushMatrix();
+        g.translate(SZ * aw.x, 0, SZ * aw.y);
+        g.rotateY(-aw.facingDir.getAngle());
+        makeWall(g, aw.flatImage);
+        g.popMatrix();
+        instruments.gallery.end();
+      }
       
-      g.pushMatrix();
-      aw.makeGeometry(g);
-      g.popMatrix();
+      if (aw.isGeometryVisible(visibility))
+      {
+        drawGeometry(g, n);
+      }
     }
   }
   
-  popMatrix();
+  if (cullBackFaces) setFaceCulling(g, false);
+  g.popMatrix();
+}
+
+void applyView(PGraphics g)
+{
+  //The vertical field of view is kept whatever the shape of the window.
+  float cameraZ = HALF_SZ / tan(view.fov/2.0);
+  g.perspective(view.fov, view.aspect * g.width / g.height, cameraZ/10.0, cameraZ*200.0);
   
-  if (displayDiagnostics)
+  //Matrix transformations based on the user's position and orientation.
+  g.rotateX(view.tilt);
+  g.rotateZ(view.roll);
+  g.rotateY(view.pan);
+  g.rotateY(view.yaw);
+  g.translate(-view.eyeX, 0, -view.eyeZ);
+}
+
+void drawGeometry(PGraphics g, int n)
+{
+  //Draws the geometry of the nth artwork, timing it separately from the rest of the frame.
+  Artwork aw = map.artworks.get(n);
+  boolean doubleSided = cullBackFaces && aw.isDoubleSided();
+  instruments.artworks[n].begin();
+  if (doubleSided) setFaceCulling(g, false);
+  g.pushMatrix();
+  aw.makeGeometry(g);
+  g.popMatrix();
+  if (doubleSided) setFaceCulling(g, true);
+  instruments.artworks[n].end();
+  instruments.countDraw(0);
+}
+
+void setFaceCulling(PGraphics g, boolean cull)
+{
+  //Processing has no function for this, and 'endPGL' turns culling off again, so it is set in OpenGL directly. Whatever
+  //has been drawn so far is flushed first, so it isn't affected. Processing counts faces wound clockwise on the screen as
+  //the front, as its own shapes are, and all of the gallery's geometry is wound the same way.
+  if (g instanceof SoftwareGraphics)
   {
-    drawDiagnostics();
+    ((SoftwareGraphics)g).cullBackFaces = cull;
+    return;
   }
-} 
+  g.flush();
+  PGL pgl = ((PGraphicsOpenGL)g).pgl;
+  if (cull)
+  {
+    pgl.enable(PGL.CULL_FACE);
+    pgl.cullFace(PGL.BACK);
+  }
+  else
+  {
+    pgl.disable(PGL.CULL_FACE);
+  }
+}
 
-void makeGallery(PGraphics g)
+String mapFile()
 {
-  //Reads the layout data in the map object and constructs the basic walls, floors and ceilings of the gallery.
+  //The map given on the command line, or the usual one.
+  String file = argumentAfter("--map");
+  return file != null ? file : MAP_FILE;
+}
+
+void prepareGallery()
+{
+  //The static geometry and visibility data are built the first time they are needed, and again whenever the map is replaced.
+  if (galleryMesh == null || galleryMesh.map != map)
+  {
+    visibility = new Visibility(map);
+    galleryMesh = new GalleryMesh(map, visibility);
+    if (argumentGiven("--raycast") && !softwareRendering) raycaster = new RaycastRenderer(map);
+  }
+}
+
+void updateVisibility()
+{
+  //Works out which cells of the map could be seen this frame. While moving or turning, whatever can be seen from the
+  //destination is included too. Art effects move the camera in ways the visible sets don't account for, so everything
+  //is drawn while one is in progress.
+  //The frame shows the view part of the way from the previous step of the simulation, which may still be facing or
+  //standing somewhere the current step has moved on from, so its pose is included as well.
   
-  g.pushMatrix();
-  for(int y = 0; y < map.getHeight(); y++)
+  visibility.fitAspect(width / (float)height);
+  visibility.clear();
+  if (currentArtEffect != null)
   {
-    g.pushMatrix();
-    for(int x = 0; x < map.getWidth(); x++)
-    {
-      if (map.floorAt(x,y) > 0)
-      {
-        g.fill(0);
-        //Floor
-        g.beginShape();
-        if (map.floorAt(x,y) == 2) 
-        {
-          g.texture(textureWaves);
-        }
-        else if (map.floorAt(x,y) == 3) 
-        {
-          g.texture(textureCircles[(int)(animateCounter / (FRAME_RATE * 0.3)) % 4]);
-        }
-        
-        g.vertex(-HALF_SZ, HALF_SZ, -HALF_SZ, 0, 1);
-        g.vertex(HALF_SZ, HALF_SZ, -HALF_SZ, 0, 0);
-        g.vertex(HALF_SZ, HALF_SZ, HALF_SZ, 1, 0);
-        g.vertex(-HALF_SZ, HALF_SZ, HALF_SZ, 1, 1);
-        g.endShape(CLOSE);
-        
-        //Ceiling
-        g.beginShape();
-        g.vertex(-HALF_SZ, -HALF_SZ, -HALF_SZ,0,0);
-        g.vertex(HALF_SZ, -HALF_SZ, -HALF_SZ,1,0);
-        g.vertex(HALF_SZ, -HALF_SZ, HALF_SZ,1,1);
-        g.vertex(-HALF_SZ, -HALF_SZ, HALF_SZ,0,1);
-        g.endShape(CLOSE);
-      }
-      
-      //Walls in each cardinal direction.
-      Direction w = Direction.NORTH;
-      for(int d = 0; d < 4; d++)
-      {
-        if (map.wallAt(x,y,w))
-        {
-          makeWall(g, null);
-        }
-        rotateY(-HALF_PI);
-        w = w.clockwise();
-      }
-      
-      g.translate(SZ,0,0);
-    }
-    g.popMatrix();
-    g.translate(0,0,SZ);
+    visibility.showAll();
+    return;
   }
-  g.popMatrix();
   
-  g.pushMatrix();
-  g.translate(map.startX * SZ, 0, map.startY * SZ);
-  makeInstructions(g);
-  g.popMatrix(); 
+  int x = (int)posX;
+  int y = (int)posZ;
+  visibility.addPose(x, y, dir);
+  if (destAngle > 0) visibility.addPose(x, y, dir.clockwise());
+  if (destAngle < 0) visibility.addPose(x, y, dir.antiClockwise());
+  if (stepCounter > 0) visibility.addPose(x + dir.getDX(), y + dir.getDZ(), dir);
+  if (stepCounter < 0) visibility.addPose(x - dir.getDX(), y - dir.getDZ(), dir);
+  
+  //A teleport is shown straight away, so the previous step doesn't matter if it was outside the map.
+  ViewState previous = simulation.previous;
+  if (visibility.contains(previous.cellX, previous.cellZ)) visibility.addPose(previous.cellX, previous.cellZ, previous.facing);
+}
+
+void makeGallery(PGraphics g)
+{
+  //Draws the basic walls, floors and ceilings of the gallery from the layout data in the map object. The static parts are
+  //compiled into the GalleryMesh, of which only the parts that can currently be seen are drawn.
+  
+  galleryMesh.draw(g, visibility);
+  
+  //The floors marking the position of each artwork are animated, so these are still drawn every frame, by the CircleShader.
+  //It only needs the texture coordinates across each floor, but a texture has to be given for Processing to pass these on.
+  if (g instanceof SoftwareGraphics)
+  {
+    ((SoftwareGraphics)g).ringShader(view.animation / FRAME_RATE);
+  }
+  else
+  {
+    circleShader.setTime(view.animation / FRAME_RATE);
+    g.shader(circleShader);
+  }
+  for(int n = 0; n < galleryMesh.circleX.length; n++)
+  {
+    if (!visibility.isVisible(galleryMesh.circleX[n], galleryMesh.circleY[n])) continue;
+    float cx = galleryMesh.circleX[n] * SZ;
+    float cz = galleryMesh.circleY[n] * SZ;
+    g.beginShape();
+    g.texture(atlas.image);
+    g.vertex(cx - HALF_SZ, HALF_SZ, cz - HALF_SZ, 0, 1);
+    g.vertex(cx + HALF_SZ, HALF_SZ, cz - HALF_SZ, 0, 0);
+    g.vertex(cx + HALF_SZ, HALF_SZ, cz + HALF_SZ, 1, 0);
+    g.vertex(cx - HALF_SZ, HALF_SZ, cz + HALF_SZ, 1, 1);
+    g.endShape(CLOSE);
+    instruments.countDraw(4);
+  }
+  g.resetShader();
 }
 
 void makeWall(PGraphics g, PImage wall)
 {
   g.translate(0,0, -HALF_SZ);
-  fill(255);
+  g.fill(255);
   if (wall == null)
   {
-    rect(-HALF_SZ, -HALF_SZ, SZ, SZ);
+    g.rect(-HALF_SZ, -HALF_SZ, SZ, SZ);
   }
   else
   {
-    g.image(wall, -HALF_SZ, -HALF_SZ);
+    g.image(wall, -HALF_SZ, -HALF_SZ, SZ, SZ);
   }
+  instruments.countDraw(4);
   g.translate(0,0, HALF_SZ);
 }
 
-public void makeInstructions(PGraphics g)
+void makeWall(PGraphics g, AtlasRegion wall)
 {
-  //The instructions are on the north wall at the start position, and the first thing the player sees when the sketch begins.
-  g.pushMatrix();
-  
-  //First construct the 'plaque' on which the instruction text is written.
-  int w1 = (int)(SZ / 2.5f);
-  int h1 = SZ / 3;
-  int w2 = (int)(w1 - SZ/16);
-  int h2 = (int)(h1 - SZ/16);
-  int d = SZ / 24;
-  
   g.translate(0,0, -HALF_SZ);
-  g.beginShape();
-  g.texture(textureStripes);
-  g.vertex(-w1, -h1, 0, 0.25f, 0.25f);
-  g.vertex(w1, -h1, 0, 0.25f, 0);
-  g.vertex(w2, -h2, d, 0, 0.25f);
-  g.vertex(-w2, -h2, d, 0, 0);
-  g.endShape();
-  
-  g.beginShape();
-  g.texture(textureStripes);
-  g.vertex(-w2, h2, d, 0, 0);
-  g.vertex(w2, h2, d, 0, 0.25f);
-  g.vertex(w1, h1, 0, 0.25f, 0);
-  g.vertex(-w1, h1, 0, 0.25f, 0.25f);
-  g.endShape();  
-  
-  g.beginShape();
-  g.texture(textureStripes);
-  g.vertex(-w1, h1, 0, 0.25f, 0.25f);
-  g.vertex(-w1, -h1, 0, 0.25f, 0);
-  g.vertex(-w2, -h2, d, 0, 0.25f);
-  g.vertex(-w2, h2, d, 0, 0);
-  g.endShape();    
-  
-  g.beginShape();
-  g.texture(textureStripes);
-  g.vertex(w2, h2, d, 0, 0);
-  g.vertex(w2, -h2, d, 0, 0.25f);
-  g.vertex(w1, -h1, 0, 0.25f, 0);
-  g.vertex(w1, h1, 0, 0.25f, 0.25f);
-  g.endShape();  
-  
-  g.beginShape();
-  g.vertex(-w2, -h2, d, 0, 0);
-  g.vertex(w2, -h2, d, 1, 0);
-  g.vertex(w2, h2, d, 1, 1);
-  g.vertex(-w2, h2, d, 0, 1);
-  g.endShape();
-  
-  //Now write the text itself onto the plaque.
-  
-  String introMessage =
+  wall.draw(g, -HALF_SZ, -HALF_SZ, SZ, SZ);
+  instruments.countDraw(4);
+  g.translate(0,0, HALF_SZ);
+}
+
+//The text of the instruction plaque. This is drawn into 'textureInstructions', so TEXTURE_VERSION must be increased if it
+//is changed.
+final String INTRO_MESSAGE =
   "WELCOME TO THE\n" +
   "BRIDGET RILEY VIRTUAL GALLERY\n\n" +
   "Use the arrow keys to turn left or right\n" +
@@ -305,15 +553,6 @@ public void makeInstructions(PGraphics g)
   "Step on the circles on the floor and face\n" +
   "the wall to see an artistic transformation.\n\n" +
   "Now turn LEFT to begin.";
-  
-  g.translate(0,0,d + SZ/128);
-  g.fill(0);
-  g.textSize(TEXT_SIZE);
-  g.textAlign(CENTER);
-  g.text(introMessage,0, - TEXT_SIZE * 7);
-  g.translate(0,0, HALF_SZ);
-  g.popMatrix();
-}
 
 void drawWave(PGraphics g, int x, int thickness)
 { 
@@ -329,24 +568,53 @@ void drawWave(PGraphics g, int x, int thickness)
   g.endShape();
 }
 
+void playSound(SoundFile sound)
+{
+  //Sounds aren't loaded when exporting frames.
+  if (sound != null)
+  {
+    sound.play();
+  }
+}
+
+void setUpGraphics(PGraphics g)
+{
+  //The settings the gallery is drawn with, looking along the negative z axis from the origin. With '--software' the window
+  //is 2D, and only the view is drawn in 3D.
+  if (g.is3D()) g.camera(0,0,0,0,0,-HALF_SZ,0,1,0);
+  g.textureMode(NORMAL);
+  g.noStroke();
+}
+
 void setStandardPerspective(PGraphics g)
 {
   float cameraZ = HALF_SZ / tan(HALF_PI/2.0);
-  g.perspective(HALF_PI, 1.0, cameraZ/10.0, cameraZ*200.0);  
+  g.perspective(HALF_PI, g.width / (float)g.height, cameraZ/10.0, cameraZ*200.0);  
 }
 
 void drawDiagnostics()
 {
-  setStandardPerspective(g);
-  
-  translate(0,0, -HALF_SZ);
+  if (g.is3D())
+  {
+    setStandardPerspective(g);
+    translate(0,0, -HALF_SZ);
+  }
+  else
+  {
+    //The same size and place on the screen as in 3D.
+    translate(width / 2, height / 2);
+    scale(height / (float)SZ);
+  }
   fill(255,0,0);
   textAlign(LEFT);
   
   textSize(TEXT_SIZE);
-  text((int)posX + ", " + (int)posZ + " (" + dir.getName() + ")", 0, -HALF_SZ + TEXT_SIZE);
-  text("Tilt: " + cameraTilt + "   Pan: " + cameraPan + "   Roll: " + cameraRoll, 0, -HALF_SZ + 2 * TEXT_SIZE);
-  text("Aspect: " + viewportAspect, 0, -HALF_SZ + 3 * TEXT_SIZE);  
-  text("fov: " + fieldOfView, 0, -HALF_SZ + 4 * TEXT_SIZE);
-  text("forward: " + forwardPositionModifier, 0, -HALF_SZ + 5 * TEXT_SIZE);
+  TextLine t = instruments.overlayLine;
+  t.clear().add((int)posX).add(", ").add((int)posZ).add(" (").add(dir.getName()).add(")").draw(1);
+  t.clear().add("Tilt: ").add(cameraTilt, 3).add("   Pan: ").add(cameraPan, 3).add("   Roll: ").add(cameraRoll, 3).draw(2);
+  t.clear().add("Aspect: ").add(viewportAspect, 3).draw(3);
+  t.clear().add("fov: ").add(fieldOfView, 3).draw(4);
+  t.clear().add("forward: ").add(forwardPositionModifier, 1).draw(5);
+  t.clear().add("Resolution: ").add(resolution.renderWidth()).add(" x ").add(resolution.renderHeight()).draw(6);
+  instruments.drawOverlay(7);
 }
@@ -0,0 +1,179 @@
+import java.util.concurrent.*;
+
+//Rendering the textures and the artworks' wall images takes several seconds, so rather than doing it all before the gallery
+//appears, as much as possible is done in the background. Images drawn with the default JAVA2D renderer don't need OpenGL, so
+//they are drawn by a pool of worker threads, all at the same time. Those needing P3D can only be drawn on the sketch's own
+//thread, so they are drawn one per frame once the gallery is on screen, starting with any that can be seen, and only saved
+//to the cache by the workers. Until its image is ready, an artwork's wall is left blank.
+//Images saved in the TextureCache by an earlier launch are read from there instead, which doesn't need OpenGL either.
+
+class PreRenderer
+{
+  ExecutorService workers;
+  TextureCache cache;
+  ArrayList<Artwork> openGLQueue = new ArrayList<Artwork>(); //Artworks waiting to be drawn on the sketch's thread.
+  ArrayList<Future<?>> started = new ArrayList<Future<?>>(); //The jobs started for each artwork.
+  
+  public PreRenderer(TextureCache cache)
+  {
+    this.cache = cache;
+    int threads = max(1, Runtime.getRuntime().availableProcessors() - 1);
+    workers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        //Daemon threads, so they never keep the sketch running after it has been closed.
+        Thread t = new Thread(r, "PreRenderer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+  
+  Future<PImage> submit(final String name, final int version, final Callable<PImage> job)
+  {
+    //Reads the image from the cache, or if it isn't there, draws it and saves it in the cache, on a worker thread.
+    return workers.submit(new Callable<PImage>()
+    {
+      public PImage call()
+      {
+        return cached(name, version, job);
+      }
+    });
+  }
+  
+  PImage cached(String name, int version, Callable<PImage> job)
+  {
+    //As above, but on the calling thread.
+    PImage image = cache.read(name, version);
+    if (image == null)
+    {
+      try
+      {
+        image = job.call();
+      }
+      catch (Exception e)
+      {
+        throw new RuntimeException("The image '" + name + "' could not be pre-rendered.", e);
+      }
+      cache.write(name, version, image);
+    }
+    return image;
+  }
+  
+  PImage await(Future<PImage> image)
+  {
+    try
+    {
+      return image.get();
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException("A texture could not be pre-rendered.", e);
+    }
+  }
+  
+  void start(ArrayList<Artwork> artworks)
+  {
+    //Starts drawing the wall image of each artwork. The cache is checked first on a worker thread, and only if the image
+    //isn't there and needs OpenGL is it queued to be drawn on the sketch's thread.
+    for(final Artwork aw: artworks)
+    {
+      started.add(workers.submit(new Runnable()
+      {
+        public void run()
+        {
+          try
+          {
+            PImage image = cache.read(aw.getImageName(), aw.getImageVersion());
+            if (image == null && !aw.needsOpenGL())
+            {
+              image = aw.createFlatImage();
+              cache.write(aw.getImageName(), aw.getImageVersion(), image);
+            }
+            
+            if (image != null)
+            {
+              aw.flatImage = image;
+            }
+            else
+            {
+              synchronized (openGLQueue)
+              {
+                openGLQueue.add(aw);
+              }
+            }
+          }
+          catch (RuntimeException e)
+          {
+            //Otherwise the error would only be seen if 'finish' was called.
+            e.printStackTrace();
+            throw e;
+          }
+        }
+      }));
+    }
+  }
+  
+  void finish()
+  {
+    //Waits for every artwork's image to be ready, drawing any which need OpenGL straight away. This must be called on the
+    //sketch's own thread.
+    for(Future<?> job: started)
+    {
+      try
+      {
+        job.get();
+      }
+      catch (Exception e)
+      {
+        throw new RuntimeException("An artwork's image could not be pre-rendered.", e);
+      }
+    }
+    while (!openGLQueue.isEmpty())
+    {
+      drawNext(null);
+    }
+  }
+  
+  void update(Visibility v)
+  {
+    //Called once per frame to draw the next image which needs OpenGL. Artworks which can be seen are drawn first.
+    drawNext(v);
+  }
+  
+  private void drawNext(Visibility v)
+  {
+    Artwork aw;
+    synchronized (openGLQueue)
+    {
+      if (openGLQueue.isEmpty()) return;
+      
+      int next = 0;
+      for(int n = 0; n < openGLQueue.size(); n++)
+      {
+        if (v != null && v.isVisible(openGLQueue.get(n).x, openGLQueue.get(n).y))
+        {
+          next = n;
+          break;
+        }
+      }
+      aw = openGLQueue.remove(next);
+    }
+    
+    //The pixels of an OpenGL image can only be read on this thread, but once a copy has been taken, writing it to the cache
+    //is left to a worker, so the frame isn't held up by the file.
+    PImage image = aw.createFlatImage();
+    final PImage copy = image.get();
+    final String name = aw.getImageName();
+    final int version = aw.getImageVersion();
+    workers.execute(new Runnable()
+    {
+      public void run()
+      {
+        cache.write(name, version, copy);
+      }
+    });
+    aw.flatImage = image;
+  }
+}
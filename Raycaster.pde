@@ -0,0 +1,480 @@
+//Running the sketch with '--raycast' draws the walls, floors and ceilings of the gallery without any OpenGL geometry. A ray
+//is cast across the map for each column of the screen, stepping from cell to cell until it meets a wall, and the column is
+//filled in from the textures in the TextureAtlas and the artworks' wall images. The time this takes depends on the number
+//of pixels drawn rather than the size of the gallery, so very large galleries can be shown on machines with a weak graphics
+//card, or none. The picture is drawn at DynamicResolution's resolution and stretched over the window.
+//Only a level view can be drawn this way, so while an art effect is running, which may tilt and roll the camera, the usual
+//renderer takes over. The artworks' geometry is still drawn with OpenGL over the top. The walls the rays met are written
+//into the depth buffer first, as one quad for each run of columns that met the same line of walls, so the walls in front
+//of the geometry hide it just as they would in the usual renderer. It is also clipped to the columns of the screen whose
+//rays passed close to it, which saves drawing what would be hidden anyway.
+//The screen is divided into tiles a few columns wide, which are drawn at the same time by the TileWorkers. Every column is
+//drawn independently of the others.
+
+//A texture the RaycastRenderer can read pixels from: either a region of the TextureAtlas or a whole image.
+class RaycastTexture
+{
+  int[] pixels;
+  int stride, x, y, w, h;
+  PImage source; //The image the pixels were read from, so an artwork's texture can be updated once its image is drawn.
+  
+  RaycastTexture(AtlasRegion r)
+  {
+    set(r.image, r.x, r.y, r.atlasW, r.atlasH);
+  }
+  
+  RaycastTexture(PImage image)
+  {
+    set(image, 0, 0, image.pixelWidth, image.pixelHeight);
+  }
+  
+  void set(PImage image, int x, int y, int w, int h)
+  {
+    image.loadPixels();
+    source = image;
+    pixels = image.pixels;
+    stride = image.pixelWidth;
+    this.x = x;
+    this.y = y;
+    this.w = w;
+    this.h = h;
+  }
+  
+  int sample(float u, float v)
+  {
+    //The nearest pixel to the normalised texture coordinates, which are clamped to the edges of the texture.
+    int px = constrain((int)(u * w), 0, w - 1);
+    int py = constrain((int)(v * h), 0, h - 1);
+    return pixels[(y + py) * stride + x + px] | 0xff000000;
+  }
+}
+
+final int RAYCAST_TILE_COLUMNS = 32; //The width of each tile, in pixels.
+
+class RaycastRenderer implements TileJob
+{
+  Map map;
+  PImage frame;
+  int frameWidth, frameHeight;
+  float[] rowDepth; //The distance to the floor seen in each row below the middle of the screen.
+  
+  //The view being drawn, copied for the worker threads at the start of each frame.
+  float eyeX, eyeZ, tanV, tanH, cosTurn, sinTurn, ringInner;
+  
+  //The first and last columns whose rays passed through each cell this frame, used to clip the artworks' geometry.
+  int[] firstColumn, lastColumn;
+  int[] columnLine; //The line of walls each column's ray met, as 'line * 2', plus one for a line along the z axis, or -1.
+  int[] seenCells;
+  int seenCount = 0;
+  
+  RaycastTexture white, waves, stripes, instructions;
+  RaycastTexture[] artworkTextures;
+  int[] artworkWalls; //The artwork whose image is on each edge of each cell, stored as 'cell * 4 + direction', or -1.
+  
+  RaycastTile[] tiles = new RaycastTile[0];
+  
+  public RaycastRenderer(Map map)
+  {
+    this.map = map;
+    int cells = map.getWidth() * map.getHeight();
+    firstColumn = new int[cells];
+    lastColumn = new int[cells];
+    seenCells = new int[cells];
+    java.util.Arrays.fill(firstColumn, Integer.MAX_VALUE);
+    java.util.Arrays.fill(lastColumn, -1);
+    
+    white = new RaycastTexture(textureWhite);
+    waves = new RaycastTexture(textureWaves);
+    stripes = new RaycastTexture(textureStripes);
+    instructions = new RaycastTexture(textureInstructions);
+    artworkTextures = new RaycastTexture[map.artworks.size()];
+    
+    //The artworks' cells have no walls of their own, so the edges their images hang on are looked up here instead.
+    artworkWalls = new int[cells * 4];
+    java.util.Arrays.fill(artworkWalls, -1);
+    for(int n = 0; n < map.artworks.size(); n++)
+    {
+      Artwork aw = map.artworks.get(n);
+      if (inMap(aw.x, aw.y)) artworkWalls[(aw.y * map.getWidth() + aw.x) * 4 + aw.facingDir.ordinal()] = n;
+    }
+  }
+  
+  public void drawTile(int n)
+  {
+    tiles[n].draw();
+  }
+  
+  boolean canDrawView()
+  {
+    return currentArtEffect == null && view.tilt == 0 && view.roll == 0;
+  }
+  
+  void drawView(int w, int h)
+  {
+    instruments.gallery.begin();
+    render(w, h);
+    stretchOverWindow(frame);
+    instruments.gallery.end();
+    
+    //The artworks' geometry goes on top, drawn as usual but only within the columns where its cells could be seen.
+    g.pushMatrix();
+    applyView(g);
+    writeWallDepth(w);
+    if (cullBackFaces) setFaceCulling(g, true);
+    for(int n = 0; n < map.artworks.size(); n++)
+    {
+      Artwork aw = map.artworks.get(n);
+      if (!aw.isGeometryVisible(visibility)) continue;
+      
+      int[] area = aw.getGeometryArea(map);
+      int first = Integer.MAX_VALUE, last = -1;
+      for(int y = max(0, area[1]); y <= min(map.getHeight() - 1, area[3]); y++)
+      {
+        for(int x = max(0, area[0]); x <= min(map.getWidth() - 1, area[2]); x++)
+        {
+          first = min(first, firstColumn[y * map.getWidth() + x]);
+          last = max(last, lastColumn[y * map.getWidth() + x]);
+        }
+      }
+      if (last < 0) continue;
+      
+      float scale = width / (float)w;
+      g.clip(first * scale, 0, (last - first + 1) * scale, height);
+      drawGeometry(g, n);
+      g.noClip();
+    }
+    if (cullBackFaces) setFaceCulling(g, false);
+    g.popMatrix();
+  }
+  
+  void writeWallDepth(int w)
+  {
+    //Draws the walls met by the rays into the depth buffer only, with OpenGL's colour writes turned off. Each run of columns
+    //whose rays met the same line of walls becomes a single quad along that line, from the floor to the ceiling.
+    g.flush();
+    PGL pgl = ((PGraphicsOpenGL)g).pgl;
+    pgl.colorMask(false, false, false, false);
+    g.beginShape(QUADS);
+    int quads = 0;
+    int start = 0;
+    while (start < w)
+    {
+      int line = columnLine[start];
+      int end = start + 1;
+      while (end < w && columnLine[end] == line) end++;
+      if (line >= 0)
+      {
+        wallDepthVertex(line, start, w, -HALF_SZ);
+        wallDepthVertex(line, end, w, -HALF_SZ);
+        wallDepthVertex(line, end, w, HALF_SZ);
+        wallDepthVertex(line, start, w, HALF_SZ);
+        quads++;
+      }
+      start = end;
+    }
+    g.endShape();
+    g.flush();
+    pgl.colorMask(true, true, true, true);
+    instruments.countDraw(quads * 4);
+  }
+  
+  void wallDepthVertex(int line, int edge, int w, float y)
+  {
+    //The point where the ray along the given edge between columns meets the line of walls.
+    float dx = ((2.0 * edge) / w - 1) * tanH;
+    float rayX = cosTurn * dx + sinTurn;
+    float rayZ = sinTurn * dx - cosTurn;
+    float c = (line / 2 - 0.5) * SZ;
+    if (line % 2 == 0)
+    {
+      float t = rayX == 0 ? 0 : max(0, (c - eyeX) / rayX);
+      g.vertex(c, y, eyeZ + rayZ * t);
+    }
+    else
+    {
+      float t = rayZ == 0 ? 0 : max(0, (c - eyeZ) / rayZ);
+      g.vertex(eyeX + rayX * t, y, c);
+    }
+  }
+  
+  void render(int w, int h)
+  {
+    if (frame == null || frame.width != w || frame.height != h)
+    {
+      frame = createImage(w, h, RGB);
+      frameWidth = w;
+      frameHeight = h;
+      rowDepth = new float[h];
+      columnLine = new int[w];
+      tiles = new RaycastTile[(w + RAYCAST_TILE_COLUMNS - 1) / RAYCAST_TILE_COLUMNS];
+      for(int n = 0; n < tiles.length; n++)
+      {
+        tiles[n] = new RaycastTile(this, n * RAYCAST_TILE_COLUMNS, min(w, (n + 1) * RAYCAST_TILE_COLUMNS));
+      }
+    }
+    frame.loadPixels();
+    updateArtworkTextures();
+    
+    //The camera looks along the negative z axis before being turned, and the rays are scaled so that each has a depth of
+    //one along the direction the camera is facing, so the distances found are depths, which don't bend straight walls.
+    eyeX = view.eyeX;
+    eyeZ = view.eyeZ;
+    tanV = tan(view.fov / 2);
+    tanH = tanV * view.aspect * w / h;
+    cosTurn = cos(view.pan + view.yaw);
+    sinTurn = sin(view.pan + view.yaw);
+    for(int y = h / 2; y < h; y++)
+    {
+      float below = ((2 * (y + 0.5)) / h - 1) * tanV;
+      rowDepth[y] = below > 0 ? HALF_SZ / below : Float.POSITIVE_INFINITY;
+    }
+    ringInner = circlePhase(view.animation / FRAME_RATE) * CIRCLE_RING_WIDTH;
+    
+    getTileWorkers().run(this, tiles.length);
+    frame.updatePixels();
+    
+    //Gather up the cells each tile's rays passed through.
+    for(int n = 0; n < seenCount; n++)
+    {
+      firstColumn[seenCells[n]] = Integer.MAX_VALUE;
+      lastColumn[seenCells[n]] = -1;
+    }
+    seenCount = 0;
+    for(RaycastTile t: tiles)
+    {
+      for(int n = 0; n < t.seenCount; n++)
+      {
+        int cell = t.seenCells[n];
+        if (lastColumn[cell] < 0) seenCells[seenCount++] = cell;
+        firstColumn[cell] = min(firstColumn[cell], t.seenColumns[n]);
+        lastColumn[cell] = max(lastColumn[cell], t.seenColumns[n]);
+      }
+    }
+  }
+  
+  boolean inMap(int x, int z)
+  {
+    return x >= 0 && z >= 0 && x < map.getWidth() && z < map.getHeight();
+  }
+  
+  int artworkAt(int x, int z, Direction edge)
+  {
+    //The index of the artwork hanging on the given edge of the cell, facing into it, or -1 if there is none.
+    return artworkWalls[(z * map.getWidth() + x) * 4 + edge.ordinal()];
+  }
+  
+  void updateArtworkTextures()
+  {
+    //The artworks' images are read the first time they are ready. Until then, their walls are left blank.
+    for(int n = 0; n < artworkTextures.length; n++)
+    {
+      PImage image = map.artworks.get(n).flatImage;
+      if (image != null && (artworkTextures[n] == null || artworkTextures[n].source != image))
+      {
+        artworkTextures[n] = new RaycastTexture(image);
+      }
+    }
+  }
+}
+
+//Draws a range of columns of the RaycastRenderer's frame, on one of its threads.
+class RaycastTile
+{
+  RaycastRenderer r;
+  Map map;
+  int firstX, endX;
+  
+  //Filled in by 'castRay' for the column being drawn.
+  float hitDepth, hitU;
+  int hitLine;
+  RaycastTexture hitTexture;
+  boolean hitPlaque;
+  
+  //Filled in by 'floorAt'.
+  float floorU, floorV;
+  
+  //Every cell each ray passed through, with its column, in the order they were reached.
+  int[] seenCells = new int[1024];
+  int[] seenColumns = new int[1024];
+  int seenCount;
+  
+  RaycastTile(RaycastRenderer r, int firstX, int endX)
+  {
+    this.r = r;
+    this.map = r.map;
+    this.firstX = firstX;
+    this.endX = endX;
+  }
+  
+  void draw()
+  {
+    seenCount = 0;
+    for(int x = firstX; x < endX; x++)
+    {
+      drawColumn(x);
+    }
+  }
+  
+  void drawColumn(int x)
+  {
+    int w = r.frameWidth;
+    int h = r.frameHeight;
+    int[] pixels = r.frame.pixels;
+    float dx = ((2 * (x + 0.5)) / w - 1) * r.tanH;
+    float rayX = r.cosTurn * dx + r.sinTurn;
+    float rayZ = r.sinTurn * dx - r.cosTurn;
+    castRay(x, rayX, rayZ);
+    r.columnLine[x] = hitTexture != null ? hitLine : -1;
+    
+    //The wall fills the rows between its top and bottom edges, which are the same distance above and below the middle.
+    //If the ray left the map without meeting one, the floor and ceiling meet in the middle.
+    int top = (h + 1) / 2, bottom = top;
+    if (hitTexture != null)
+    {
+      float half = HALF_SZ / (hitDepth * r.tanV) * h / 2;
+      top = constrain(ceil(h / 2.0 - half - 0.5), 0, h);
+      bottom = constrain(ceil(h / 2.0 + half - 0.5), 0, h);
+    }
+    for(int y = top; y < bottom; y++)
+    {
+      float v = (((2 * (y + 0.5)) / h - 1) * r.tanV * hitDepth + HALF_SZ) / SZ;
+      pixels[y * w + x] = wallColour(v);
+    }
+    
+    //Each row of the ceiling is as far away as the row of the floor the same distance below the middle.
+    for(int y = 0; y < top; y++)
+    {
+      pixels[y * w + x] = floorAt(r.rowDepth[h - 1 - y], rayX, rayZ) == 0 ? 0xffffffff : 0xff000000;
+    }
+    for(int y = bottom; y < h; y++)
+    {
+      int floor = floorAt(r.rowDepth[y], rayX, rayZ);
+      int colour = 0xff000000;
+      if (floor == 0) colour = 0xffffffff;
+      else if (floor == 2) colour = r.waves.sample(floorU, floorV);
+      else if (floor == 3)
+      {
+        float d = dist(floorU, floorV, 0.5, 0.5);
+        if (d >= r.ringInner && d < r.ringInner + CIRCLE_RING_WIDTH) colour = 0xffffffff;
+      }
+      pixels[y * w + x] = colour;
+    }
+  }
+  
+  int floorAt(float depth, float rayX, float rayZ)
+  {
+    //Returns the type of floor at the given depth along the ray, or 0 if there is none, and sets 'floorU' and 'floorV' to the
+    //texture coordinates across it, the same as GalleryMesh and the CircleShader use.
+    if (depth == Float.POSITIVE_INFINITY) return 0;
+    float fx = r.eyeX + rayX * depth;
+    float fz = r.eyeZ + rayZ * depth;
+    int x = floor(fx / SZ + 0.5);
+    int z = floor(fz / SZ + 0.5);
+    if (!r.inMap(x, z)) return 0;
+    floorU = (fz - z * SZ) / SZ + 0.5;
+    floorV = (x * SZ - fx) / SZ + 0.5;
+    return map.floorAt(x, z);
+  }
+  
+  void castRay(int column, float rayX, float rayZ)
+  {
+    //Steps from cell to cell along the ray, always crossing whichever cell edge the ray reaches first, as Visibility does.
+    //The ray's position is measured in cells, with the edges of cell 0 at 0 and 1.
+    float px = r.eyeX / SZ + 0.5;
+    float pz = r.eyeZ / SZ + 0.5;
+    int x = floor(px);
+    int z = floor(pz);
+    int stepX = rayX > 0 ? 1 : -1;
+    int stepZ = rayZ > 0 ? 1 : -1;
+    float deltaX = rayX == 0 ? Float.MAX_VALUE : abs(SZ / rayX); //The depth travelled in crossing a whole cell.
+    float deltaZ = rayZ == 0 ? Float.MAX_VALUE : abs(SZ / rayZ);
+    float nextX = (stepX > 0 ? x + 1 - px : px - x) * deltaX;
+    float nextZ = (stepZ > 0 ? z + 1 - pz : pz - z) * deltaZ;
+    Direction edgeX = stepX > 0 ? Direction.EAST : Direction.WEST;
+    Direction edgeZ = stepZ > 0 ? Direction.SOUTH : Direction.NORTH;
+    
+    hitTexture = null;
+    while (r.inMap(x, z))
+    {
+      seen(x, z, column);
+      
+      Direction edge = nextX < nextZ ? edgeX : edgeZ;
+      float depth = nextX < nextZ ? nextX : nextZ;
+      if (hitWall(x, z, edge, depth, rayX, rayZ)) return;
+      
+      if (edge == edgeX)
+      {
+        x += stepX;
+        nextX += deltaX;
+      }
+      else
+      {
+        z += stepZ;
+        nextZ += deltaZ;
+      }
+    }
+  }
+  
+  boolean hitWall(int x, int z, Direction edge, float depth, float rayX, float rayZ)
+  {
+    //A wall can be recorded on the cell at either side of an edge, and an artwork's image hangs on an edge of its cell
+    //without a wall being recorded at all. Only the front of a wall, facing into its own cell, shows an artwork's image or
+    //the plaque; the back is plain white.
+    int nx = x + edge.getDX();
+    int nz = z + edge.getDZ();
+    Direction back = edge.clockwise().clockwise();
+    int artwork = r.artworkAt(x, z, edge);
+    boolean front = artwork >= 0 || map.wallAt(x, z, edge);
+    if (!front && !(r.inMap(nx, nz) && (map.wallAt(nx, nz, back) || r.artworkAt(nx, nz, back) >= 0))) return false;
+    
+    hitDepth = depth;
+    hitTexture = r.white;
+    hitPlaque = false;
+    if (edge == Direction.EAST || edge == Direction.WEST) hitLine = (edge == Direction.EAST ? x + 1 : x) * 2;
+    else hitLine = (edge == Direction.SOUTH ? z + 1 : z) * 2 + 1;
+    
+    //Across the wall from left to right, as seen from inside the cell, as 'makeWall' draws the image.
+    float hx = r.eyeX + rayX * depth - x * SZ;
+    float hz = r.eyeZ + rayZ * depth - z * SZ;
+    if (edge == Direction.NORTH) hitU = hx / SZ + 0.5;
+    else if (edge == Direction.EAST) hitU = hz / SZ + 0.5;
+    else if (edge == Direction.SOUTH) hitU = 0.5 - hx / SZ;
+    else hitU = 0.5 - hz / SZ;
+    
+    if (!front) return true;
+    if (artwork >= 0 && r.artworkTextures[artwork] != null) hitTexture = r.artworkTextures[artwork];
+    hitPlaque = x == map.startX && z == map.startY && edge == Direction.NORTH;
+    return true;
+  }
+  
+  int wallColour(float v)
+  {
+    if (hitPlaque)
+    {
+      //The plaque is drawn flat on the wall, with the instructions on its face and a striped frame.
+      float lx = (hitU - 0.5) * SZ;
+      float ly = (v - 0.5) * SZ;
+      if (abs(lx) < PLAQUE_FACE_HALF_WIDTH && abs(ly) < PLAQUE_FACE_HALF_HEIGHT)
+      {
+        return r.instructions.sample((lx + PLAQUE_FACE_HALF_WIDTH) / (2 * PLAQUE_FACE_HALF_WIDTH), (ly + PLAQUE_FACE_HALF_HEIGHT) / (2 * PLAQUE_FACE_HALF_HEIGHT));
+      }
+      if (abs(lx) < PLAQUE_HALF_WIDTH && abs(ly) < PLAQUE_HALF_HEIGHT)
+      {
+        return r.stripes.sample(hitU, v);
+      }
+    }
+    return hitTexture.sample(hitU, v);
+  }
+  
+  void seen(int x, int z, int column)
+  {
+    if (seenCount == seenCells.length)
+    {
+      seenCells = expand(seenCells);
+      seenColumns = expand(seenColumns);
+    }
+    seenCells[seenCount] = z * map.getWidth() + x;
+    seenColumns[seenCount] = column;
+    seenCount++;
+  }
+}
@@ -0,0 +1,133 @@
+//The gallery is updated in fixed steps of 1/FRAME_RATE seconds, however often frames are actually drawn, so walking, turning
+//and the art effects always take the same time. All of the counters in Movement and the artworks count these steps rather
+//than drawn frames. Frames are drawn at up to RENDER_FRAME_RATE, each showing the view part of the way between the last two
+//steps, so movement stays smooth when frames are drawn more often than steps are taken. If drawing falls behind, several
+//steps are taken before the next frame, so the timing is kept, up to MAX_STEPS_PER_FRAME, beyond which the gallery slows
+//down rather than stalling.
+
+final int MAX_STEPS_PER_FRAME = 5;
+
+//Everything needed to draw the user's view of the gallery. Rather than the position and the step or turn in progress, the
+//camera's actual position and angle are stored, as these can be blended smoothly from one step to the next.
+class ViewState
+{
+  float eyeX, eyeZ, yaw;
+  float tilt, roll, pan;
+  float fov, aspect;
+  float animation; //The value of 'animateCounter'.
+  int cellX, cellZ; //The cell the user is in and the way they face, used to look up the visible cells. Not blended.
+  Direction facing;
+  
+  void capture()
+  {
+    //Copies the state of the simulation.
+    cellX = (int)posX;
+    cellZ = (int)posZ;
+    facing = dir;
+    yaw = dir.getAngle() + angle;
+    eyeX = posX * SZ - forwardPositionModifier * sin(yaw);
+    eyeZ = posZ * SZ + forwardPositionModifier * cos(yaw);
+    tilt = cameraTilt;
+    roll = cameraRoll;
+    pan = cameraPan;
+    fov = fieldOfView;
+    aspect = viewportAspect;
+    animation = animateCounter;
+  }
+  
+  void set(ViewState s)
+  {
+    eyeX = s.eyeX;
+    eyeZ = s.eyeZ;
+    yaw = s.yaw;
+    tilt = s.tilt;
+    roll = s.roll;
+    pan = s.pan;
+    fov = s.fov;
+    aspect = s.aspect;
+    animation = s.animation;
+    cellX = s.cellX;
+    cellZ = s.cellZ;
+    facing = s.facing;
+  }
+  
+  void blend(ViewState from, ViewState to, float t)
+  {
+    float turn = to.yaw - from.yaw;
+    if (turn > PI) turn -= TWO_PI;
+    if (turn < -PI) turn += TWO_PI;
+    
+    //Teleporting to another part of the gallery happens in a single step, so that is shown straight away.
+    if (abs(to.eyeX - from.eyeX) > HALF_SZ || abs(to.eyeZ - from.eyeZ) > HALF_SZ || abs(turn) > QUARTER_PI || to.animation < from.animation)
+    {
+      set(to);
+      return;
+    }
+    
+    eyeX = lerp(from.eyeX, to.eyeX, t);
+    eyeZ = lerp(from.eyeZ, to.eyeZ, t);
+    yaw = from.yaw + turn * t;
+    tilt = lerp(from.tilt, to.tilt, t);
+    roll = lerp(from.roll, to.roll, t);
+    pan = lerp(from.pan, to.pan, t);
+    fov = lerp(from.fov, to.fov, t);
+    aspect = lerp(from.aspect, to.aspect, t);
+    animation = lerp(from.animation, to.animation, t);
+  }
+}
+
+class SimulationClock
+{
+  final long STEP_NANOS = 1000000000L / FRAME_RATE;
+  
+  long lastTime = -1;
+  long behind = 0; //Time which has passed but not yet been simulated.
+  ViewState previous = new ViewState();
+  ViewState current = new ViewState();
+  ViewState rendered = new ViewState(); //The view to draw this frame.
+  
+  public SimulationClock()
+  {
+    current.capture();
+    previous.set(current);
+    rendered.set(current);
+  }
+  
+  void advance()
+  {
+    //Called at the start of each frame to take however many steps are due.
+    long now = System.nanoTime();
+    if (lastTime >= 0) behind += now - lastTime;
+    lastTime = now;
+    
+    int steps = 0;
+    while (behind >= STEP_NANOS)
+    {
+      if (steps == MAX_STEPS_PER_FRAME)
+      {
+        behind = 0;
+        break;
+      }
+      step();
+      behind -= STEP_NANOS;
+      steps++;
+    }
+    
+    rendered.blend(previous, current, behind / (float)STEP_NANOS);
+  }
+  
+  void advanceOneStep()
+  {
+    //Takes exactly one step, and shows it without blending, so that every frame is the same however fast it was drawn.
+    step();
+    rendered.set(current);
+  }
+  
+  private void step()
+  {
+    previous.set(current);
+    animateCounter++;
+    doStepMovement();
+    current.capture();
+  }
+}
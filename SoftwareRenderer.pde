@@ -0,0 +1,819 @@
+//Running the sketch with '--software' draws the gallery without OpenGL at all, for machines with no graphics card, where P3D
+//falls back to slow, single threaded software OpenGL. The window uses Processing's JAVA2D renderer, and everything which
+//would be drawn with P3D is drawn by a SoftwareGraphics instead: the view, through the same 'makeGallery', 'makeWall' and
+//'makeGeometry' calls and the same retained shapes (recorded as SoftwareShapes), and the artworks' wall images. Everything
+//in the gallery is a flat or textured polygon, so that is all it draws: triangles, quads and convex polygons, with a depth
+//buffer, but no lines, lighting or smoothing.
+//Each polygon is transformed, clipped against the near plane and projected as soon as it is drawn, and its triangles are
+//added to the list of each square tile of the screen they touch. When drawing ends, the tiles are filled in at the same
+//time by the TileWorkers, each using its own part of the depth buffer and drawing its triangles in the order they were
+//given, as OpenGL would. Texture coordinates are interpolated with perspective correction, and each pixel is read from
+//the mipmap level matching its size in the texture, as the floors and walls shimmer at a distance without them. Where a
+//triangle only covers a single colour of its texture, such as the walls' region of plain white in the TextureAtlas, it is
+//filled with the colour instead. The floors' animated circles are drawn as the CircleShader would draw them.
+
+final int SOFTWARE_TILE_SIZE = 64; //The width and height of each tile, in pixels.
+final int SOFTWARE_UNIFORM_BLOCK = 8; //The size of the squares of a texture checked for being a single colour.
+
+//The mipmaps of every image drawn as a texture, made the first time each is used. Images aren't changed once they are
+//drawn with, so they are only read once.
+java.util.WeakHashMap<PImage, SoftwareTexture> softwareTextures = new java.util.WeakHashMap<PImage, SoftwareTexture>();
+
+SoftwareTexture softwareTexture(PImage image)
+{
+  synchronized (softwareTextures)
+  {
+    SoftwareTexture t = softwareTextures.get(image);
+    if (t == null)
+    {
+      t = new SoftwareTexture(image);
+      softwareTextures.put(image, t);
+    }
+    return t;
+  }
+}
+
+class SoftwareTexture
+{
+  int[][] levels; //The image, followed by each mipmap level, half the size of the one before, down to a single pixel.
+  int[] widths, heights;
+  int[] blockColours; //The colour of each SOFTWARE_UNIFORM_BLOCK square of the image, or 0 if it has more than one.
+  int blocksAcross, blocksDown;
+  
+  SoftwareTexture(PImage image)
+  {
+    image.loadPixels();
+    int w = image.pixelWidth;
+    int h = image.pixelHeight;
+    int count = 1;
+    while ((max(w, h) >> count) > 0) count++;
+    levels = new int[count][];
+    widths = new int[count];
+    heights = new int[count];
+    
+    int opaque = image.format == RGB ? 0xff000000 : 0; //The alpha of an RGB image's pixels is undefined.
+    levels[0] = new int[w * h];
+    for(int n = 0; n < w * h; n++)
+    {
+      levels[0][n] = image.pixels[n] | opaque;
+    }
+    widths[0] = w;
+    heights[0] = h;
+    for(int l = 1; l < count; l++)
+    {
+      shrink(l);
+    }
+    findBlockColours();
+  }
+  
+  void shrink(int l)
+  {
+    //Each pixel of a level is the average of the four pixels of the level above it which it covers.
+    int[] from = levels[l - 1];
+    int fw = widths[l - 1], fh = heights[l - 1];
+    int w = max(1, fw / 2), h = max(1, fh / 2);
+    int[] to = new int[w * h];
+    for(int y = 0; y < h; y++)
+    {
+      int y1 = min(2 * y, fh - 1) * fw, y2 = min(2 * y + 1, fh - 1) * fw;
+      for(int x = 0; x < w; x++)
+      {
+        int x1 = min(2 * x, fw - 1), x2 = min(2 * x + 1, fw - 1);
+        int a = from[y1 + x1], b = from[y1 + x2], c = from[y2 + x1], d = from[y2 + x2];
+        int colour = 0;
+        for(int shift = 0; shift < 32; shift += 8)
+        {
+          int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff) + ((c >>> shift) & 0xff) + ((d >>> shift) & 0xff);
+          colour |= ((sum + 2) / 4) << shift;
+        }
+        to[y * w + x] = colour;
+      }
+    }
+    levels[l] = to;
+    widths[l] = w;
+    heights[l] = h;
+  }
+  
+  void findBlockColours()
+  {
+    int w = widths[0], h = heights[0];
+    blocksAcross = (w + SOFTWARE_UNIFORM_BLOCK - 1) / SOFTWARE_UNIFORM_BLOCK;
+    blocksDown = (h + SOFTWARE_UNIFORM_BLOCK - 1) / SOFTWARE_UNIFORM_BLOCK;
+    blockColours = new int[blocksAcross * blocksDown];
+    for(int by = 0; by < blocksDown; by++)
+    {
+      for(int bx = 0; bx < blocksAcross; bx++)
+      {
+        int colour = levels[0][by * SOFTWARE_UNIFORM_BLOCK * w + bx * SOFTWARE_UNIFORM_BLOCK];
+        for(int y = by * SOFTWARE_UNIFORM_BLOCK; y < min(h, (by + 1) * SOFTWARE_UNIFORM_BLOCK); y++)
+        {
+          for(int x = bx * SOFTWARE_UNIFORM_BLOCK; x < min(w, (bx + 1) * SOFTWARE_UNIFORM_BLOCK); x++)
+          {
+            if (levels[0][y * w + x] != colour) colour = 0;
+          }
+        }
+        //Colours which are mostly transparent are left out too, as they aren't drawn (see 'SoftwareTile').
+        blockColours[by * blocksAcross + bx] = colour < 0 ? colour : 0;
+      }
+    }
+  }
+  
+  int uniformColour(float u1, float v1, float u2, float v2)
+  {
+    //The colour of the texture between the given normalised texture coordinates, if it is all the same, or otherwise 0.
+    int bx1 = constrain((int)(u1 * widths[0]), 0, widths[0] - 1) / SOFTWARE_UNIFORM_BLOCK;
+    int bx2 = constrain((int)(u2 * widths[0]), 0, widths[0] - 1) / SOFTWARE_UNIFORM_BLOCK;
+    int by1 = constrain((int)(v1 * heights[0]), 0, heights[0] - 1) / SOFTWARE_UNIFORM_BLOCK;
+    int by2 = constrain((int)(v2 * heights[0]), 0, heights[0] - 1) / SOFTWARE_UNIFORM_BLOCK;
+    int colour = blockColours[by1 * blocksAcross + bx1];
+    for(int by = by1; by <= by2 && colour != 0; by++)
+    {
+      for(int bx = bx1; bx <= bx2; bx++)
+      {
+        if (blockColours[by * blocksAcross + bx] != colour) return 0;
+      }
+    }
+    return colour;
+  }
+  
+  int sample(int level, float u, float v)
+  {
+    //The nearest pixel of the level to the normalised texture coordinates, which are clamped to the edges of the texture.
+    int w = widths[level], h = heights[level];
+    int x = (int)(u * w);
+    int y = (int)(v * h);
+    if (x < 0) x = 0;
+    else if (x >= w) x = w - 1;
+    if (y < 0) y = 0;
+    else if (y >= h) y = h - 1;
+    return levels[level][y * w + x];
+  }
+}
+
+//A retained shape which can be drawn by any renderer. JAVA2D's own shapes don't keep 3D geometry, so when the sketch is run
+//with '--software', 'createShape' makes these instead. Drawing one replays its vertices, much as if they had been drawn in
+//immediate mode.
+class SoftwareShape extends PShape
+{
+  float[] coords = new float[5 * 64]; //x, y, z, u and v of each vertex, with normalised texture coordinates.
+  int[] colours = new int[64];
+  int fillColour = 0xffffffff;
+  
+  SoftwareShape(int family)
+  {
+    super(family);
+  }
+  
+  public void fill(int rgb)
+  {
+    fillColour = color(rgb);
+  }
+  
+  public void fill(float grey)
+  {
+    fillColour = color(grey);
+  }
+  
+  public void vertex(float x, float y, float z)
+  {
+    vertex(x, y, z, 0, 0);
+  }
+  
+  public void vertex(float x, float y, float z, float u, float v)
+  {
+    if (image != null && textureMode == IMAGE)
+    {
+      u /= image.pixelWidth;
+      v /= image.pixelHeight;
+    }
+    if (vertexCount == colours.length)
+    {
+      coords = expand(coords, coords.length * 2);
+      colours = expand(colours, colours.length * 2);
+    }
+    int i = vertexCount * 5;
+    coords[i] = x;
+    coords[i + 1] = y;
+    coords[i + 2] = z;
+    coords[i + 3] = u;
+    coords[i + 4] = v;
+    colours[vertexCount++] = fillColour;
+  }
+  
+  public void draw(PGraphics g)
+  {
+    if (!isVisible()) return;
+    if (family == GROUP)
+    {
+      for(int n = 0; n < getChildCount(); n++)
+      {
+        getChild(n).draw(g);
+      }
+      return;
+    }
+    
+    int savedTextureMode = g.textureMode;
+    int savedFill = g.fillColor;
+    g.textureMode(NORMAL);
+    g.beginShape(kind);
+    if (image != null) g.texture(image);
+    for(int n = 0; n < vertexCount; n++)
+    {
+      if (n == 0 || colours[n] != colours[n - 1]) g.fill(colours[n]);
+      int i = n * 5;
+      g.vertex(coords[i], coords[i + 1], coords[i + 2], coords[i + 3], coords[i + 4]);
+    }
+    g.endShape();
+    g.textureMode(savedTextureMode);
+    g.fill(savedFill);
+  }
+}
+
+class SoftwareGraphics extends PGraphics implements TileJob
+{
+  //How each triangle's pixels are coloured.
+  final int FLAT = 0, TEXTURED = 1, RING = 2;
+  
+  int tilesAcross;
+  SoftwareTile[] tiles;
+  float[] depth; //1 / w of the nearest triangle drawn at each pixel, or 0 where there is none, stored tile by tile.
+  boolean clearPending = false; //Whether 'background' has been called since the tiles were last drawn.
+  int clearColour;
+  
+  PMatrix3D cameraMatrix = new PMatrix3D();
+  PMatrix3D modelview = new PMatrix3D();
+  PMatrix3D[] matrixStack = new PMatrix3D[MATRIX_STACK_DEPTH];
+  int matrixDepth = 0;
+  boolean cameraSet = false;
+  float projectX, projectY, near; //The perspective projection, set by 'perspective'.
+  boolean cullBackFaces = false; //Set by the sketch's 'setFaceCulling'.
+  boolean ring = false; //Whether the floors' circles are being drawn, by 'ringShader'.
+  float ringInner;
+  
+  //The vertices of the shape being drawn, in eye coordinates, with their normalised texture coordinates and colours.
+  float[] shapeCoords = new float[5 * 64];
+  int[] shapeColours = new int[64];
+  int shapeVertices = 0;
+  
+  //Scratch space for each triangle, once clipped against the near plane, and once projected onto the screen as x, y, 1 / w,
+  //u / w and v / w.
+  float[] clipped = new float[5 * 4];
+  double[] projected = new double[5 * 4];
+  int[] corners = new int[3];
+  
+  //The triangles drawn since the tiles were last drawn. For each, the edges are stored as a, b and c of 'a * x + b * y + c',
+  //which is positive inside the triangle, and 1 / w, u / w and v / w as 'dx * x + dy * y + c' across the screen.
+  int triangleCount = 0;
+  double[] edges = new double[9 * 256];
+  double[] planes = new double[9 * 256];
+  int[] bounds = new int[4 * 256]; //The first and last pixel columns and rows the triangle covers.
+  int[] modes = new int[256];
+  int[] colours = new int[256];
+  SoftwareTexture[] textures = new SoftwareTexture[256];
+  
+  SoftwareGraphics(int w, int h)
+  {
+    setParent(OpArtVirtualGallery.this);
+    setPrimary(false);
+    setSize(w, h);
+    format = ARGB;
+    pixels = new int[w * h];
+    for(int n = 0; n < matrixStack.length; n++)
+    {
+      matrixStack[n] = new PMatrix3D();
+    }
+    
+    tilesAcross = (w + SOFTWARE_TILE_SIZE - 1) / SOFTWARE_TILE_SIZE;
+    int tilesDown = (h + SOFTWARE_TILE_SIZE - 1) / SOFTWARE_TILE_SIZE;
+    tiles = new SoftwareTile[tilesAcross * tilesDown];
+    for(int n = 0; n < tiles.length; n++)
+    {
+      int x = (n % tilesAcross) * SOFTWARE_TILE_SIZE;
+      int y = (n / tilesAcross) * SOFTWARE_TILE_SIZE;
+      tiles[n] = new SoftwareTile(this, x, y, min(w, x + SOFTWARE_TILE_SIZE), min(h, y + SOFTWARE_TILE_SIZE), n * SOFTWARE_TILE_SIZE * SOFTWARE_TILE_SIZE);
+    }
+    depth = new float[tiles.length * SOFTWARE_TILE_SIZE * SOFTWARE_TILE_SIZE];
+  }
+  
+  public boolean is3D()
+  {
+    return true;
+  }
+  
+  public void beginDraw()
+  {
+    //As with P3D, drawing starts from the camera, which is Processing's default until another is set.
+    checkSettings();
+    if (!cameraSet)
+    {
+      camera();
+      perspective();
+    }
+    modelview.set(cameraMatrix);
+    matrixDepth = 0;
+    ring = false;
+  }
+  
+  public void endDraw()
+  {
+    getTileWorkers().run(this, tiles.length);
+    clearPending = false;
+    triangleCount = 0;
+    updatePixels();
+  }
+  
+  public void drawTile(int n)
+  {
+    tiles[n].draw();
+  }
+  
+  protected void backgroundImpl()
+  {
+    //The tiles are cleared when they are drawn. Anything drawn before this would be covered up, so it is thrown away.
+    clearColour = backgroundColor | 0xff000000;
+    clearPending = true;
+    triangleCount = 0;
+    for(SoftwareTile t: tiles)
+    {
+      t.count = 0;
+    }
+  }
+  
+  public void camera()
+  {
+    float cameraZ = (height / 2.0) / tan(PI / 6);
+    camera(width / 2.0, height / 2.0, cameraZ, width / 2.0, height / 2.0, 0, 0, 1, 0);
+  }
+  
+  public void camera(float eyeX, float eyeY, float eyeZ, float centerX, float centerY, float centerZ, float upX, float upY, float upZ)
+  {
+    //As P3D's camera, which looks along its negative z axis, with its y axis as near to the up vector as it can be.
+    float zx = eyeX - centerX, zy = eyeY - centerY, zz = eyeZ - centerZ;
+    float zLength = sqrt(zx * zx + zy * zy + zz * zz);
+    if (zLength != 0)
+    {
+      zx /= zLength;
+      zy /= zLength;
+      zz /= zLength;
+    }
+    float xx = upY * zz - upZ * zy, xy = upZ * zx - upX * zz, xz = upX * zy - upY * zx;
+    float yx = zy * xz - zz * xy, yy = zz * xx - zx * xz, yz = zx * xy - zy * xx;
+    float xLength = sqrt(xx * xx + xy * xy + xz * xz);
+    float yLength = sqrt(yx * yx + yy * yy + yz * yz);
+    if (xLength != 0)
+    {
+      xx /= xLength;
+      xy /= xLength;
+      xz /= xLength;
+    }
+    if (yLength != 0)
+    {
+      yx /= yLength;
+      yy /= yLength;
+      yz /= yLength;
+    }
+    cameraMatrix.set(xx, xy, xz, 0, yx, yy, yz, 0, zx, zy, zz, 0, 0, 0, 0, 1);
+    cameraMatrix.translate(-eyeX, -eyeY, -eyeZ);
+    modelview.set(cameraMatrix);
+    cameraSet = true;
+  }
+  
+  public void perspective()
+  {
+    float cameraZ = (height / 2.0) / tan(PI / 6);
+    perspective(PI / 3, width / (float)height, cameraZ / 10, cameraZ * 10);
+  }
+  
+  public void perspective(float fovy, float aspect, float zNear, float zFar)
+  {
+    //Nothing is far enough away to need the far plane.
+    projectY = 1 / tan(fovy / 2);
+    projectX = projectY / aspect;
+    near = zNear;
+  }
+  
+  public void pushMatrix()
+  {
+    if (matrixDepth == matrixStack.length) throw new RuntimeException(ERROR_PUSHMATRIX_OVERFLOW);
+    matrixStack[matrixDepth++].set(modelview);
+  }
+  
+  public void popMatrix()
+  {
+    if (matrixDepth == 0) throw new RuntimeException(ERROR_PUSHMATRIX_UNDERFLOW);
+    modelview.set(matrixStack[--matrixDepth]);
+  }
+  
+  public void resetMatrix()
+  {
+    modelview.reset();
+  }
+  
+  public void translate(float x, float y)
+  {
+    modelview.translate(x, y, 0);
+  }
+  
+  public void translate(float x, float y, float z)
+  {
+    modelview.translate(x, y, z);
+  }
+  
+  public void rotate(float angle)
+  {
+    modelview.rotateZ(angle);
+  }
+  
+  public void rotateX(float angle)
+  {
+    modelview.rotateX(angle);
+  }
+  
+  public void rotateY(float angle)
+  {
+    modelview.rotateY(angle);
+  }
+  
+  public void rotateZ(float angle)
+  {
+    modelview.rotateZ(angle);
+  }
+  
+  public void scale(float s)
+  {
+    modelview.scale(s, s, s);
+  }
+  
+  public void scale(float x, float y)
+  {
+    modelview.scale(x, y, 1);
+  }
+  
+  public void scale(float x, float y, float z)
+  {
+    modelview.scale(x, y, z);
+  }
+  
+  void ringShader(float seconds)
+  {
+    //Draws the following shapes as the CircleShader would, until 'resetShader'.
+    ring = true;
+    ringInner = circlePhase(seconds) * CIRCLE_RING_WIDTH;
+  }
+  
+  public void resetShader()
+  {
+    ring = false;
+  }
+  
+  public void beginShape(int kind)
+  {
+    shape = kind;
+    shapeVertices = 0;
+    textureImage = null;
+  }
+  
+  public void vertex(float x, float y)
+  {
+    vertex(x, y, 0, 0, 0);
+  }
+  
+  public void vertex(float x, float y, float z)
+  {
+    vertex(x, y, z, 0, 0);
+  }
+  
+  public void vertex(float x, float y, float u, float v)
+  {
+    vertex(x, y, 0, u, v);
+  }
+  
+  public void vertex(float x, float y, float z, float u, float v)
+  {
+    //Each vertex is moved into eye coordinates straight away, as the matrix may change before the shape ends.
+    if (textureImage != null && textureMode == IMAGE)
+    {
+      u /= textureImage.pixelWidth;
+      v /= textureImage.pixelHeight;
+    }
+    if (shapeVertices == shapeColours.length)
+    {
+      shapeCoords = expand(shapeCoords, shapeCoords.length * 2);
+      shapeColours = expand(shapeColours, shapeColours.length * 2);
+    }
+    PMatrix3D m = modelview;
+    int i = shapeVertices * 5;
+    shapeCoords[i] = m.m00 * x + m.m01 * y + m.m02 * z + m.m03;
+    shapeCoords[i + 1] = m.m10 * x + m.m11 * y + m.m12 * z + m.m13;
+    shapeCoords[i + 2] = m.m20 * x + m.m21 * y + m.m22 * z + m.m23;
+    shapeCoords[i + 3] = u;
+    shapeCoords[i + 4] = v;
+    shapeColours[shapeVertices++] = fillColor;
+  }
+  
+  public void endShape(int mode)
+  {
+    //Only the kinds of shape the gallery draws are supported: triangles, quads and convex polygons.
+    SoftwareTexture texture = textureImage != null ? softwareTexture(textureImage) : null;
+    int n = shapeVertices;
+    if (shape == TRIANGLES)
+    {
+      for(int i = 0; i + 2 < n; i += 3)
+      {
+        clipTriangle(i, i + 1, i + 2, texture);
+      }
+    }
+    else if (shape == QUADS)
+    {
+      for(int i = 0; i + 3 < n; i += 4)
+      {
+        clipTriangle(i, i + 1, i + 2, texture);
+        clipTriangle(i, i + 2, i + 3, texture);
+      }
+    }
+    else if (shape == POLYGON || shape == TRIANGLE_FAN)
+    {
+      for(int i = 1; i + 1 < n; i++)
+      {
+        clipTriangle(0, i, i + 1, texture);
+      }
+    }
+    shapeVertices = 0;
+  }
+  
+  void clipTriangle(int a, int b, int c, SoftwareTexture texture)
+  {
+    //Clips the triangle against the near plane, which can leave four corners, and adds what is left as one or two triangles.
+    corners[0] = a;
+    corners[1] = b;
+    corners[2] = c;
+    int count = 0;
+    for(int n = 0; n < 3; n++)
+    {
+      int p = corners[n] * 5, q = corners[(n + 1) % 3] * 5;
+      float pz = shapeCoords[p + 2], qz = shapeCoords[q + 2];
+      boolean pIn = pz <= -near, qIn = qz <= -near;
+      if (pIn)
+      {
+        System.arraycopy(shapeCoords, p, clipped, count * 5, 5);
+        count++;
+      }
+      if (pIn != qIn)
+      {
+        float t = (-near - pz) / (qz - pz);
+        for(int k = 0; k < 5; k++)
+        {
+          clipped[count * 5 + k] = shapeCoords[p + k] + t * (shapeCoords[q + k] - shapeCoords[p + k]);
+        }
+        count++;
+      }
+    }
+    if (count < 3) return;
+    
+    float u1 = Float.MAX_VALUE, v1 = Float.MAX_VALUE, u2 = -Float.MAX_VALUE, v2 = -Float.MAX_VALUE;
+    for(int n = 0; n < count; n++)
+    {
+      //The camera looks along the negative z axis, and y points down the screen.
+      int i = n * 5;
+      double w = -clipped[i + 2];
+      projected[i] = (1 + projectX * clipped[i] / w) * width / 2;
+      projected[i + 1] = (1 + projectY * clipped[i + 1] / w) * height / 2;
+      projected[i + 2] = 1 / w;
+      projected[i + 3] = clipped[i + 3] / w;
+      projected[i + 4] = clipped[i + 4] / w;
+      u1 = min(u1, clipped[i + 3]);
+      v1 = min(v1, clipped[i + 4]);
+      u2 = max(u2, clipped[i + 3]);
+      v2 = max(v2, clipped[i + 4]);
+    }
+    
+    int mode = FLAT;
+    int colour = shapeColours[a] | 0xff000000;
+    if (ring)
+    {
+      mode = RING;
+    }
+    else if (texture != null)
+    {
+      colour = texture.uniformColour(u1, v1, u2, v2);
+      if (colour != 0) colour |= 0xff000000;
+      else mode = TEXTURED;
+    }
+    addTriangle(0, 1, 2, mode, colour, texture);
+    if (count == 4) addTriangle(0, 2, 3, mode, colour, texture);
+  }
+  
+  void addTriangle(int a, int b, int c, int mode, int colour, SoftwareTexture texture)
+  {
+    //Works out the triangle's edges and how its values change across the screen, and adds it to each tile it touches.
+    //Processing counts faces wound clockwise on the screen as the front, and the others are turned round to match.
+    double[] p = projected;
+    double area = (p[b * 5] - p[a * 5]) * (p[c * 5 + 1] - p[a * 5 + 1]) - (p[c * 5] - p[a * 5]) * (p[b * 5 + 1] - p[a * 5 + 1]);
+    if (area == 0 || (area < 0 && cullBackFaces)) return;
+    if (area < 0)
+    {
+      int swap = b;
+      b = c;
+      c = swap;
+      area = -area;
+    }
+    int i0 = a * 5, i1 = b * 5, i2 = c * 5;
+    double x0 = p[i0], y0 = p[i0 + 1], x1 = p[i1], y1 = p[i1 + 1], x2 = p[i2], y2 = p[i2 + 1];
+    
+    double left = Math.max(0, Math.floor(Math.min(x0, Math.min(x1, x2))));
+    double top = Math.max(0, Math.floor(Math.min(y0, Math.min(y1, y2))));
+    double right = Math.min(width - 1, Math.ceil(Math.max(x0, Math.max(x1, x2))));
+    double bottom = Math.min(height - 1, Math.ceil(Math.max(y0, Math.max(y1, y2))));
+    if (left > right || top > bottom) return;
+    
+    if (triangleCount == modes.length)
+    {
+      int size = modes.length * 2;
+      edges = expand(edges, size * 9);
+      planes = expand(planes, size * 9);
+      bounds = expand(bounds, size * 4);
+      modes = expand(modes, size);
+      colours = expand(colours, size);
+      textures = (SoftwareTexture[])expand(textures, size);
+    }
+    int t = triangleCount++;
+    bounds[t * 4] = (int)left;
+    bounds[t * 4 + 1] = (int)top;
+    bounds[t * 4 + 2] = (int)right;
+    bounds[t * 4 + 3] = (int)bottom;
+    modes[t] = mode;
+    colours[t] = colour;
+    textures[t] = texture;
+    
+    setEdge(t * 9, x0, y0, x1, y1);
+    setEdge(t * 9 + 3, x1, y1, x2, y2);
+    setEdge(t * 9 + 6, x2, y2, x0, y0);
+    for(int k = 0; k < 3; k++)
+    {
+      double f0 = p[i0 + 2 + k], f1 = p[i1 + 2 + k], f2 = p[i2 + 2 + k];
+      double dx = ((f1 - f0) * (y2 - y0) - (f2 - f0) * (y1 - y0)) / area;
+      double dy = ((f2 - f0) * (x1 - x0) - (f1 - f0) * (x2 - x0)) / area;
+      planes[t * 9 + k * 3] = dx;
+      planes[t * 9 + k * 3 + 1] = dy;
+      planes[t * 9 + k * 3 + 2] = f0 - dx * x0 - dy * y0;
+    }
+    
+    for(int ty = (int)top / SOFTWARE_TILE_SIZE; ty <= (int)bottom / SOFTWARE_TILE_SIZE; ty++)
+    {
+      for(int tx = (int)left / SOFTWARE_TILE_SIZE; tx <= (int)right / SOFTWARE_TILE_SIZE; tx++)
+      {
+        tiles[ty * tilesAcross + tx].add(t);
+      }
+    }
+  }
+  
+  void setEdge(int i, double xa, double ya, double xb, double yb)
+  {
+    edges[i] = ya - yb;
+    edges[i + 1] = xb - xa;
+    edges[i + 2] = -(edges[i] * xa + edges[i + 1] * ya);
+  }
+}
+
+//A square of a SoftwareGraphics' pixels, with the triangles touching it, which are drawn on one of the TileWorkers.
+class SoftwareTile
+{
+  SoftwareGraphics g;
+  int x1, y1, x2, y2; //The first pixel column and row of the tile, and the ones after its last.
+  int depthStart; //Where the tile's part of the depth buffer starts.
+  int[] triangles = new int[64];
+  int count = 0;
+  
+  SoftwareTile(SoftwareGraphics g, int x1, int y1, int x2, int y2, int depthStart)
+  {
+    this.g = g;
+    this.x1 = x1;
+    this.y1 = y1;
+    this.x2 = x2;
+    this.y2 = y2;
+    this.depthStart = depthStart;
+  }
+  
+  void add(int triangle)
+  {
+    if (count == triangles.length) triangles = expand(triangles);
+    triangles[count++] = triangle;
+  }
+  
+  void draw()
+  {
+    if (g.clearPending)
+    {
+      for(int y = y1; y < y2; y++)
+      {
+        java.util.Arrays.fill(g.pixels, y * g.width + x1, y * g.width + x2, g.clearColour);
+      }
+      java.util.Arrays.fill(g.depth, depthStart, depthStart + SOFTWARE_TILE_SIZE * SOFTWARE_TILE_SIZE, 0);
+    }
+    for(int n = 0; n < count; n++)
+    {
+      drawTriangle(triangles[n]);
+    }
+    count = 0;
+  }
+  
+  void drawTriangle(int t)
+  {
+    int[] bounds = g.bounds;
+    int left = max(x1, bounds[t * 4]), right = min(x2 - 1, bounds[t * 4 + 2]);
+    int top = max(y1, bounds[t * 4 + 1]), bottom = min(y2 - 1, bounds[t * 4 + 3]);
+    double[] e = g.edges;
+    double[] p = g.planes;
+    int ei = t * 9, pi = t * 9;
+    
+    for(int y = top; y <= bottom; y++)
+    {
+      //The pixels whose centres are inside all three edges. A pixel centred exactly on an edge shared by two triangles is
+      //drawn by both, so there are never any gaps between them.
+      double py = y + 0.5;
+      double start = left, end = right + 1;
+      boolean empty = false;
+      for(int k = 0; k < 9; k += 3)
+      {
+        double a = e[ei + k];
+        double c = e[ei + k + 1] * py + e[ei + k + 2];
+        if (a > 0) start = Math.max(start, Math.ceil(-c / a - 0.5));
+        else if (a < 0) end = Math.min(end, Math.floor(-c / a - 0.5) + 1);
+        else if (c < 0) empty = true;
+      }
+      if (empty || start >= end) continue;
+      
+      int x = (int)start;
+      double px = x + 0.5;
+      float w = (float)(p[pi] * px + p[pi + 1] * py + p[pi + 2]);
+      float u = (float)(p[pi + 3] * px + p[pi + 4] * py + p[pi + 5]);
+      float v = (float)(p[pi + 6] * px + p[pi + 7] * py + p[pi + 8]);
+      int row = y * g.width;
+      int depthRow = depthStart + (y - y1) * SOFTWARE_TILE_SIZE - x1;
+      if (g.modes[t] == g.FLAT) drawFlat(x, (int)end, row, depthRow, w, (float)p[pi], g.colours[t]);
+      else if (g.modes[t] == g.RING) drawRing(x, (int)end, row, depthRow, w, u, v, p, pi);
+      else drawTextured(x, (int)end, row, depthRow, w, u, v, p, pi, g.textures[t]);
+    }
+  }
+  
+  void drawFlat(int x, int end, int row, int depthRow, float w, float dw, int colour)
+  {
+    //'w' here, and below, is 1 / w, which is larger for nearer pixels, and changes evenly across the screen.
+    int[] pixels = g.pixels;
+    float[] depth = g.depth;
+    for(; x < end; x++, w += dw)
+    {
+      if (w < depth[depthRow + x]) continue;
+      depth[depthRow + x] = w;
+      pixels[row + x] = colour;
+    }
+  }
+  
+  void drawRing(int x, int end, int row, int depthRow, float w, float u, float v, double[] p, int pi)
+  {
+    //The texture coordinates run from 0 to 1 across the floor, and the ring is white on black, as in 'circles.frag'.
+    int[] pixels = g.pixels;
+    float[] depth = g.depth;
+    float dw = (float)p[pi], du = (float)p[pi + 3], dv = (float)p[pi + 6];
+    float inner = g.ringInner * g.ringInner;
+    float outer = (g.ringInner + CIRCLE_RING_WIDTH) * (g.ringInner + CIRCLE_RING_WIDTH);
+    for(; x < end; x++, w += dw, u += du, v += dv)
+    {
+      if (w < depth[depthRow + x]) continue;
+      depth[depthRow + x] = w;
+      float cu = u / w - 0.5, cv = v / w - 0.5;
+      float d = cu * cu + cv * cv;
+      pixels[row + x] = d >= inner && d < outer ? 0xffffffff : 0xff000000;
+    }
+  }
+  
+  void drawTextured(int x, int end, int row, int depthRow, float w, float u, float v, double[] p, int pi, SoftwareTexture texture)
+  {
+    int[] pixels = g.pixels;
+    float[] depth = g.depth;
+    float dwx = (float)p[pi], dwy = (float)p[pi + 1];
+    float dux = (float)p[pi + 3], duy = (float)p[pi + 4];
+    float dvx = (float)p[pi + 6], dvy = (float)p[pi + 7];
+    float textureW = texture.widths[0] * 1.4142135, textureH = texture.heights[0] * 1.4142135;
+    int lastLevel = texture.levels.length - 1;
+    for(; x < end; x++, w += dwx, u += dux, v += dvx)
+    {
+      if (w < depth[depthRow + x]) continue;
+      float z = 1 / w;
+      float tu = u * z, tv = v * z;
+      
+      //The size of the pixel in the texture, from how fast the texture coordinates change across it, chooses the mipmap
+      //level. It is rounded to the nearest level, by scaling it by the square root of 2 and taking the exponent.
+      float size = max(max(abs((dux - tu * dwx) * z), abs((duy - tu * dwy) * z)) * textureW, max(abs((dvx - tv * dwx) * z), abs((dvy - tv * dwy) * z)) * textureH);
+      int level = (Float.floatToRawIntBits(size) >> 23) - 127;
+      if (level < 0) level = 0;
+      else if (level > lastLevel) level = lastLevel;
+      
+      //Pixels which are mostly transparent are left undrawn, so that whatever is behind them shows, as it would in P3D.
+      int colour = texture.sample(level, tu, tv);
+      if (colour >= 0) continue;
+      depth[depthRow + x] = w;
+      pixels[row + x] = colour | 0xff000000;
+    }
+  }
+}
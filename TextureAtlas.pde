@@ -0,0 +1,184 @@
+//All of the procedural textures are packed into a single image, so that the gallery and the artworks can be drawn without
+//switching between textures, which is slow on software OpenGL and the Raspberry Pi. Each texture becomes an AtlasRegion of
+//the atlas, which converts the texture coordinates used when drawing with it. Plain white and black are included as tiny
+//regions too, so that untextured walls and floors can be drawn along with everything else.
+//Each region is surrounded by a border repeating its edge pixels, so that smoothing and mipmapping at the edge of one region
+//don't pick up the colours of its neighbours. If the textures don't fit in the largest texture the graphics card supports,
+//they are all stored at a lower resolution instead.
+//Each region, with its border, also starts on a multiple of ATLAS_ALIGN pixels, so that the pixels of the smaller mipmap
+//levels don't straddle two regions either.
+
+final int ATLAS_BORDER = 16;
+final int ATLAS_ALIGN = 32;
+
+class AtlasRegion
+{
+  PImage image; //The whole atlas.
+  int w, h; //The size of the original texture, in pixels.
+  int x, y, atlasW, atlasH; //The region's position and size in the atlas, in pixels, not counting the border.
+  float u0, v0, u1, v1; //The same, in normalised texture coordinates.
+  
+  AtlasRegion(int w, int h)
+  {
+    this.w = atlasW = w;
+    this.h = atlasH = h;
+  }
+  
+  float u(float u)
+  {
+    //Converts a normalised texture coordinate of the original texture into one in the atlas.
+    return u0 + u * (u1 - u0);
+  }
+  
+  float v(float v)
+  {
+    return v0 + v * (v1 - v0);
+  }
+  
+  void vertex(PGraphics g, float x, float y, float z, float u, float v)
+  {
+    //For use between 'beginShape' and 'endShape', after 'g.texture(region.image)', with 'textureMode(NORMAL)'.
+    g.vertex(x, y, z, u(u), v(v));
+  }
+  
+  void draw(PGraphics g, float x, float y, float w, float h)
+  {
+    //Draws the region as 'image' would draw the original texture.
+    g.image(image, x, y, w, h, this.x, this.y, this.x + atlasW, this.y + atlasH);
+  }
+}
+
+class TextureAtlas
+{
+  PImage image;
+  ArrayList<PImage> sources = new ArrayList<PImage>();
+  ArrayList<AtlasRegion> regions = new ArrayList<AtlasRegion>();
+  
+  AtlasRegion add(PImage source)
+  {
+    //Reserves a region for the image. Its position is only known once 'pack' has been called.
+    AtlasRegion r = new AtlasRegion(source.width, source.height);
+    sources.add(source);
+    regions.add(r);
+    return r;
+  }
+  
+  AtlasRegion addColour(int colour)
+  {
+    PImage solid = createImage(4, 4, RGB);
+    solid.loadPixels();
+    java.util.Arrays.fill(solid.pixels, colour);
+    solid.updatePixels();
+    return add(solid);
+  }
+  
+  void pack()
+  {
+    //Arranges the regions in rows, tallest first, trying each width up to the largest texture the graphics card supports and
+    //keeping whichever gives the smallest atlas.
+    int limit = PGraphicsOpenGL.maxTextureSize > 0 ? PGraphicsOpenGL.maxTextureSize : 4096;
+    Integer[] order = new Integer[regions.size()];
+    for(int n = 0; n < order.length; n++)
+    {
+      order[n] = n;
+    }
+    java.util.Arrays.sort(order, new java.util.Comparator<Integer>()
+    {
+      public int compare(Integer a, Integer b)
+      {
+        return regions.get(b).h - regions.get(a).h;
+      }
+    });
+    
+    int bestWidth = 0, bestHeight = 0;
+    for(int scale = 1; bestWidth == 0; scale *= 2)
+    {
+      int widest = 0;
+      for(AtlasRegion r: regions)
+      {
+        r.atlasW = max(1, r.w / scale);
+        r.atlasH = max(1, r.h / scale);
+        widest = max(widest, cellSize(r.atlasW));
+      }
+      if (widest > limit || scale > 64)
+      {
+        throw new RuntimeException("The textures don't fit in a " + limit + " pixel texture atlas.");
+      }
+      
+      for(int atlasWidth = widest; atlasWidth <= limit; atlasWidth += widest / 2)
+      {
+        int atlasHeight = arrange(order, atlasWidth);
+        if (atlasHeight <= limit && (bestWidth == 0 || atlasWidth * atlasHeight < bestWidth * bestHeight))
+        {
+          bestWidth = atlasWidth;
+          bestHeight = atlasHeight;
+        }
+      }
+      if (bestWidth == 0) println("The textures don't fit in a " + limit + " pixel texture atlas, so their resolution has been halved.");
+    }
+    arrange(order, bestWidth);
+    
+    image = createImage(bestWidth, bestHeight, ARGB);
+    image.loadPixels();
+    for(int n = 0; n < regions.size(); n++)
+    {
+      copyWithBorder(sources.get(n), regions.get(n));
+      regions.get(n).image = image;
+    }
+    image.updatePixels();
+    sources.clear();
+  }
+  
+  private int arrange(Integer[] order, int atlasWidth)
+  {
+    //Places the regions in rows of the given width, and returns the height needed.
+    int x = 0, y = 0, rowHeight = 0;
+    for(int n: order)
+    {
+      AtlasRegion r = regions.get(n);
+      int w = cellSize(r.atlasW);
+      int h = cellSize(r.atlasH);
+      if (x + w > atlasWidth)
+      {
+        x = 0;
+        y += rowHeight;
+        rowHeight = 0;
+      }
+      r.x = x + ATLAS_BORDER;
+      r.y = y + ATLAS_BORDER;
+      x += w;
+      rowHeight = max(rowHeight, h);
+    }
+    return y + rowHeight;
+  }
+  
+  private int cellSize(int size)
+  {
+    //The space taken by a region with its border, rounded up to keep the next region aligned.
+    return (size + 2 * ATLAS_BORDER + ATLAS_ALIGN - 1) / ATLAS_ALIGN * ATLAS_ALIGN;
+  }
+  
+  private void copyWithBorder(PImage source, AtlasRegion r)
+  {
+    if (source.width != r.atlasW || source.height != r.atlasH)
+    {
+      source = source.get();
+      source.resize(r.atlasW, r.atlasH);
+    }
+    source.loadPixels();
+    int opaque = source.format == RGB ? 0xff000000 : 0; //The alpha of an RGB image's pixels is undefined.
+    for(int y = -ATLAS_BORDER; y < r.atlasH + ATLAS_BORDER; y++)
+    {
+      int sy = constrain(y, 0, r.atlasH - 1);
+      for(int x = -ATLAS_BORDER; x < r.atlasW + ATLAS_BORDER; x++)
+      {
+        int sx = constrain(x, 0, r.atlasW - 1);
+        image.pixels[(r.y + y) * image.width + r.x + x] = source.pixels[sy * source.width + sx] | opaque;
+      }
+    }
+    r.u0 = r.x / (float)image.width;
+    r.v0 = r.y / (float)image.height;
+    r.u1 = (r.x + r.atlasW) / (float)image.width;
+    r.v1 = (r.y + r.atlasH) / (float)image.height;
+  }
+}
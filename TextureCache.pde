@@ -0,0 +1,102 @@
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+//The textures and artwork images depend only on SZ, TEXTURE_SZ and the code which draws them, so once drawn they are saved in
+//the 'cache' folder inside the sketch's data folder, and read back on later launches instead of being drawn again. Each is
+//stored as raw pixels, in a file named after the image, its version, SZ and TEXTURE_SZ, which is memory-mapped when read. If the file
+//is missing or doesn't match, the image is drawn again and the file rewritten.
+//Whenever the code drawing an image is changed, its version number should be increased, so that old copies aren't used.
+
+class TextureCache
+{
+  private static final int MAGIC = 0x4f415647; //'OAVG'
+  private static final int HEADER_INTS = 5; //Magic, version, width, height and format.
+  
+  File folder;
+  
+  public TextureCache(File folder)
+  {
+    this.folder = folder;
+    folder.mkdirs();
+  }
+  
+  File fileFor(String name, int version)
+  {
+    return new File(folder, name + "-v" + version + "-" + SZ + "-" + TEXTURE_SZ + ".pixels");
+  }
+  
+  PImage read(String name, int version)
+  {
+    //Returns null if there is no valid copy of the image in the cache.
+    File file = fileFor(name, version);
+    if (!file.isFile()) return null;
+    
+    try
+    {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try
+      {
+        IntBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+        if (data.remaining() < HEADER_INTS || data.get(0) != MAGIC || data.get(1) != version) return null;
+        
+        int w = data.get(2);
+        int h = data.get(3);
+        int format = data.get(4);
+        if (w <= 0 || h <= 0 || data.remaining() != HEADER_INTS + w * h) return null;
+        
+        PImage image = createImage(w, h, format);
+        image.loadPixels();
+        data.position(HEADER_INTS);
+        data.get(image.pixels);
+        image.updatePixels();
+        return image;
+      }
+      finally
+      {
+        channel.close();
+      }
+    }
+    catch (IOException e)
+    {
+      println("Could not read " + file + " from the texture cache: " + e);
+      return null;
+    }
+  }
+  
+  void write(String name, int version, PImage image)
+  {
+    //Written to a temporary file first, so that a copy can never be read while half written.
+    File file = fileFor(name, version);
+    File temp = new File(folder, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    image.loadPixels();
+    
+    try
+    {
+      ByteBuffer data = ByteBuffer.allocate((HEADER_INTS + image.pixels.length) * 4);
+      IntBuffer ints = data.asIntBuffer();
+      ints.put(MAGIC).put(version).put(image.width).put(image.height).put(image.format);
+      ints.put(image.pixels);
+      
+      FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      try
+      {
+        while (data.hasRemaining())
+        {
+          channel.write(data);
+        }
+      }
+      finally
+      {
+        channel.close();
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e)
+    {
+      //The cache is only there to speed things up, so the sketch carries on without it.
+      println("Could not write " + file + " to the texture cache: " + e);
+      temp.delete();
+    }
+  }
+}
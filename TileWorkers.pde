@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//The CPU renderers (the RaycastRenderer and the SoftwareGraphics) divide each frame into tiles, which are drawn at the same
+//time by the sketch's own thread and a worker thread for each of the computer's other cores. Each tile only writes to its
+//own part of the frame, so the tiles need no locking, and having several tiles for each thread keeps them all busy when
+//some parts of the view take longer than others. The workers are kept waiting between frames, and take the tiles in turn
+//from a shared counter, so handing out the work allocates nothing. One set of workers is shared by everything drawing
+//this way, so they are only started once.
+
+//Something divided into tiles which can be drawn in any order, on any thread.
+interface TileJob
+{
+  void drawTile(int n);
+}
+
+TileWorkers tileWorkers; //Started the first time they are needed, by 'getTileWorkers'.
+
+TileWorkers getTileWorkers()
+{
+  if (tileWorkers == null) tileWorkers = new TileWorkers();
+  return tileWorkers;
+}
+
+class TileWorkers
+{
+  Thread sketchThread; //The thread waiting for the job, which is woken once it is finished.
+  Thread[] workers;
+  volatile int generation = 0; //Increased at the start of each job, to wake the workers.
+  volatile TileJob job;
+  volatile int tileCount;
+  AtomicInteger nextTile = new AtomicInteger(); //The index of the next tile to be taken by a thread.
+  AtomicInteger unfinished = new AtomicInteger(); //The tiles not yet drawn in this job, plus the workers not yet done with it.
+  volatile RuntimeException tileError;
+  
+  public TileWorkers()
+  {
+    workers = new Thread[Runtime.getRuntime().availableProcessors() - 1];
+    for(int n = 0; n < workers.length; n++)
+    {
+      //Daemon threads, so they never keep the sketch running after it has been closed.
+      workers[n] = new Thread(new Runnable()
+      {
+        public void run() {work();}
+      }, "TileWorker");
+      workers[n].setDaemon(true);
+      workers[n].start();
+    }
+  }
+  
+  synchronized void run(TileJob job, int tiles)
+  {
+    //Draws every tile of the job, and returns once they are all finished. Anything thrown while drawing a tile is thrown
+    //again here.
+    //The job isn't finished until every worker has woken and found nothing left to take, so that none of them can still be
+    //looking for a tile of this job while the next is being set up.
+    this.job = job;
+    tileCount = tiles;
+    sketchThread = Thread.currentThread();
+    unfinished.set(tiles + workers.length);
+    nextTile.set(0);
+    generation++;
+    for(Thread t: workers)
+    {
+      LockSupport.unpark(t);
+    }
+    drawTiles();
+    while (unfinished.get() > 0)
+    {
+      LockSupport.park(this);
+    }
+    this.job = null;
+    if (tileError != null)
+    {
+      RuntimeException e = tileError;
+      tileError = null;
+      throw e;
+    }
+  }
+  
+  void work()
+  {
+    //Run by each worker thread, which waits for the start of each job, then helps to draw it.
+    int drawn = generation;
+    while (true)
+    {
+      while (generation == drawn)
+      {
+        LockSupport.park(this);
+      }
+      drawn = generation;
+      drawTiles();
+      finish();
+    }
+  }
+  
+  void drawTiles()
+  {
+    //Draws tiles until there are none left to take in this job.
+    TileJob current = job;
+    while (true)
+    {
+      int n = nextTile.getAndIncrement();
+      if (n >= tileCount) return;
+      try
+      {
+        current.drawTile(n);
+      }
+      catch (RuntimeException e)
+      {
+        tileError = e;
+      }
+      finally
+      {
+        finish();
+      }
+    }
+  }
+  
+  void finish()
+  {
+    //Whichever thread finishes the last piece of work in the job wakes the one waiting for it.
+    if (unfinished.decrementAndGet() == 0) LockSupport.unpark(sketchThread);
+  }
+}
@@ -0,0 +1,157 @@
+//The gallery is measured in units of SZ whatever the size of the window, so the same build can be used on any screen. The
+//window is SZ pixels square unless the sketch is run with '--window <width>x<height>' or '--fullscreen', and it can also be
+//resized while the sketch is running. The view keeps the same vertical field of view, and shows more or less of the
+//gallery at the sides to fill the window.
+//Running with '--dynamic-resolution' lets the view be drawn into a smaller offscreen buffer, which is stretched to fill the
+//window, whenever frames are taking longer than RENDER_FRAME_RATE allows. The resolution is lowered a step at a time while
+//frames are too slow, and raised again once they keep up, waiting longer before each attempt that fails. A buffer is kept
+//for each step, so changing resolution only creates one the first time the step is used.
+//With '--software' the window is drawn with JAVA2D, and the view is always drawn into a buffer by a SoftwareGraphics (see
+//SoftwareRenderer), at full resolution too.
+
+final float MIN_RENDER_SCALE = 0.5; //The lowest fraction of the window's width and height that the view is drawn at.
+final int RENDER_SCALE_STEPS = 4; //The number of steps between that and the full resolution of the window.
+
+void sizeWindow()
+{
+  //Called from 'settings'.
+  String renderer = softwareRendering ? JAVA2D : P3D;
+  String windowSize = argumentAfter("--window");
+  if (argumentGiven("--fullscreen"))
+  {
+    fullScreen(renderer);
+  }
+  else if (windowSize != null && windowSize.matches("[0-9]+x[0-9]+"))
+  {
+    String[] parts = split(windowSize, 'x');
+    size(max(1, parseInt(parts[0])), max(1, parseInt(parts[1])), renderer);
+  }
+  else
+  {
+    size(SZ, SZ, renderer);
+  }
+}
+
+class DynamicResolution
+{
+  final int SETTLE_FRAMES = 30; //Frames to wait after a change before judging the new resolution.
+  final int FIRST_RAISE_FRAMES = 120; //Frames that must keep up before trying a higher resolution.
+  final int MAX_RAISE_FRAMES = 3840;
+  
+  boolean enabled;
+  int step = RENDER_SCALE_STEPS; //From 0, for MIN_RENDER_SCALE, to RENDER_SCALE_STEPS, for the full resolution.
+  PGraphics[] buffers = new PGraphics[RENDER_SCALE_STEPS + 1];
+  int buffersWidth, buffersHeight; //The size of the window the buffers were made for.
+  
+  long lastTime = -1;
+  float averageMillis; //The time between frames, smoothed over the last few frames.
+  int framesSinceChange = 0;
+  int raiseFrames = FIRST_RAISE_FRAMES;
+  boolean raised = false; //Whether the last change was to a higher resolution, which is undone if it turns out too slow.
+  
+  public DynamicResolution(boolean enabled)
+  {
+    this.enabled = enabled;
+    averageMillis = 1000.0 / RENDER_FRAME_RATE;
+  }
+  
+  float scale()
+  {
+    return MIN_RENDER_SCALE + (1 - MIN_RENDER_SCALE) * step / RENDER_SCALE_STEPS;
+  }
+  
+  int renderWidth()
+  {
+    return step == RENDER_SCALE_STEPS ? width : max(1, round(width * scale()));
+  }
+  
+  int renderHeight()
+  {
+    return step == RENDER_SCALE_STEPS ? height : max(1, round(height * scale()));
+  }
+  
+  void update()
+  {
+    //Called at the start of each frame to choose the resolution it is drawn at.
+    if (!enabled) return;
+    long now = System.nanoTime();
+    if (lastTime >= 0) averageMillis = lerp(averageMillis, (now - lastTime) / 1000000.0, 0.1);
+    lastTime = now;
+    
+    framesSinceChange++;
+    if (framesSinceChange < SETTLE_FRAMES) return;
+    
+    float budget = 1000.0 / RENDER_FRAME_RATE;
+    if (averageMillis > budget * 1.2 && step > 0)
+    {
+      if (raised) raiseFrames = min(raiseFrames * 2, MAX_RAISE_FRAMES);
+      step--;
+      raised = false;
+      framesSinceChange = 0;
+    }
+    else if (averageMillis < budget * 1.05 && step < RENDER_SCALE_STEPS && framesSinceChange >= raiseFrames)
+    {
+      step++;
+      raised = true;
+      framesSinceChange = 0;
+    }
+    else if (raised && framesSinceChange >= FIRST_RAISE_FRAMES)
+    {
+      //The last increase has kept up, so the next can be tried just as soon.
+      raised = false;
+      raiseFrames = FIRST_RAISE_FRAMES;
+    }
+  }
+  
+  PGraphics beginView()
+  {
+    //Returns the graphics to draw the view into, which is the window itself at full resolution, unless it is 2D.
+    if (step == RENDER_SCALE_STEPS && g.is3D()) return g;
+    
+    if (buffersWidth != width || buffersHeight != height)
+    {
+      //The window has been resized.
+      java.util.Arrays.fill(buffers, null);
+      buffersWidth = width;
+      buffersHeight = height;
+    }
+    if (buffers[step] == null)
+    {
+      buffers[step] = createGraphics(renderWidth(), renderHeight(), P3D);
+    }
+    
+    PGraphics buffer = buffers[step];
+    buffer.beginDraw();
+    setUpGraphics(buffer);
+    buffer.background(255);
+    return buffer;
+  }
+  
+  void endView(PGraphics view)
+  {
+    //Stretches the buffer drawn into by 'beginView' over the window.
+    if (view == g) return;
+    view.endDraw();
+    stretchOverWindow(view);
+  }
+}
+
+void stretchOverWindow(PImage image)
+{
+  //Draws the image over the whole window, behind anything drawn afterwards.
+  if (!g.is3D())
+  {
+    g.image(image, 0, 0, width, height);
+    instruments.countDraw(4);
+    return;
+  }
+  float aspect = width / (float)height;
+  g.pushMatrix();
+  setStandardPerspective(g);
+  g.hint(DISABLE_DEPTH_TEST);
+  g.translate(0,0, -HALF_SZ);
+  g.image(image, -HALF_SZ * aspect, -HALF_SZ, SZ * aspect, SZ);
+  g.hint(ENABLE_DEPTH_TEST);
+  g.popMatrix();
+  instruments.countDraw(4);
+}
@@ -0,0 +1,309 @@
+//Since the user can only stand in the centre of a cell facing one of the four directions, the set of cells that could possibly
+//be seen from each of those poses can be worked out in advance from the walls in the map. Each frame, only the cells visible
+//from the current pose (and the pose being moved or turned towards) then need to be drawn. The sets are calculated by casting
+//rays across the map the first time each pose is needed, and are kept for the rest of the time the map is in use. A window
+//wider than it is tall shows more at the sides, so the rays are spread wider, and the sets cast again, if it is resized.
+
+class Visibility
+{
+  Map map;
+  
+  //A little wider than the 90 degree field of view, so nothing at the very edges of the screen is missed.
+  final float VIEW_ANGLE_MARGIN = radians(5);
+  float halfViewAngle = QUARTER_PI + VIEW_ANGLE_MARGIN;
+  
+  //The most rays 'findSeenCells' will cast before making do with a rougher estimate.
+  final int MAX_SEEN_RAYS = 20000000;
+  
+  private int[][] poseCells; //The visible cells for each pose, stored as 'y * width + x' and indexed by 'poseIndex'.
+  private boolean[] visible; //The cells visible in the current frame.
+  private int[] visibleCells;
+  private int visibleCount = 0;
+  private boolean showAll = true;
+  
+  private boolean[] rayHit; //Scratch space for collecting the cells hit while casting the rays for a pose.
+  private int[] rayCells;
+  private int rayCount = 0;
+  private byte[] backsSeen; //The walls seen from behind by the rays, as a bit for each direction of each cell.
+  
+  public Visibility(Map map)
+  {
+    this.map = map;
+    int cells = map.getWidth() * map.getHeight();
+    poseCells = new int[cells * 4][];
+    visible = new boolean[cells];
+    visibleCells = new int[cells];
+    rayHit = new boolean[cells];
+    rayCells = new int[cells];
+    backsSeen = new byte[cells];
+  }
+  
+  boolean contains(int x, int y)
+  {
+    return x >= 0 && x < map.getWidth() && y >= 0 && y < map.getHeight();
+  }
+  
+  void clear()
+  {
+    //Starts a new frame with nothing visible. Only the cells marked in the last frame need resetting.
+    for(int n = 0; n < visibleCount; n++)
+    {
+      visible[visibleCells[n]] = false;
+    }
+    visibleCount = 0;
+    showAll = false;
+  }
+  
+  void showAll()
+  {
+    //Used whenever the camera is somewhere the visible sets don't account for, such as during an art effect.
+    showAll = true;
+  }
+  
+  boolean isShowingAll() {return showAll;}
+  
+  void fitAspect(float aspect)
+  {
+    //Widens the rays to cover the horizontal field of view of a window with the given aspect ratio, whose vertical field
+    //of view is 90 degrees. The sets are never narrowed again, so resizing the window back and forth doesn't recast them.
+    float angle = atan(aspect) + VIEW_ANGLE_MARGIN;
+    if (angle <= halfViewAngle) return;
+    halfViewAngle = angle;
+    java.util.Arrays.fill(poseCells, null);
+  }
+  
+  void addPose(int x, int y, Direction d)
+  {
+    if (showAll) return;
+    if (!contains(x, y))
+    {
+      showAll = true;
+      return;
+    }
+    
+    int poseIndex = (y * map.getWidth() + x) * 4 + d.ordinal();
+    if (poseCells[poseIndex] == null)
+    {
+      poseCells[poseIndex] = castPose(x, y, d);
+    }
+    
+    int[] cells = poseCells[poseIndex];
+    for(int n = 0; n < cells.length; n++)
+    {
+      mark(cells[n]);
+    }
+  }
+  
+  private void mark(int cell)
+  {
+    if (!visible[cell])
+    {
+      visible[cell] = true;
+      visibleCells[visibleCount++] = cell;
+    }
+  }
+  
+  boolean isVisible(int x, int y)
+  {
+    if (!contains(x, y)) return showAll;
+    return showAll || visible[y * map.getWidth() + x];
+  }
+  
+  boolean anyVisible(int x1, int y1, int x2, int y2)
+  {
+    //Whether any cell in the given rectangle (inclusive) is visible.
+    if (showAll) return true;
+    for(int y = max(0, y1); y <= min(map.getHeight() - 1, y2); y++)
+    {
+      for(int x = max(0, x1); x <= min(map.getWidth() - 1, x2); x++)
+      {
+        if (visible[y * map.getWidth() + x]) return true;
+      }
+    }
+    return false;
+  }
+  
+  boolean isBackSeen(int x, int y, Direction d)
+  {
+    //Whether the back of the wall or image on the given side of the cell could be seen from outside the cell. Only known
+    //once 'findSeenCells' has been called.
+    return (backsSeen[y * map.getWidth() + x] & (1 << d.ordinal())) != 0;
+  }
+  
+  int getVisibleCount() {return visibleCount;}
+  int getVisibleCell(int n) {return visibleCells[n];}
+  
+  private int[] castPose(int x, int y, Direction d)
+  {
+    castArc(x, y, atan2(d.getDZ(), d.getDX()), halfViewAngle);
+    
+    int[] cells = new int[rayCount];
+    for(int n = 0; n < rayCount; n++)
+    {
+      cells[n] = rayCells[n];
+      rayHit[rayCells[n]] = false;
+    }
+    rayCount = 0;
+    return cells;
+  }
+  
+  private void castArc(int x, int y, float facing, float halfAngle)
+  {
+    //Rays are cast from the centre of the cell across the arc, close enough together that none of the cells within range
+    //can fall between them. Every cell a ray passes through before being stopped by a wall is visible.
+    int range = map.getWidth() + map.getHeight();
+    int rays = max(8, ceil(halfAngle * 2 * range * 2));
+    for(int r = 0; r <= rays; r++)
+    {
+      float a = facing - halfAngle + (halfAngle * 2 * r) / rays;
+      castRay(x, y, cos(a), sin(a));
+    }
+  }
+  
+  boolean[] findSeenCells()
+  {
+    //Works out which cells could ever be seen, so that the geometry of the others can be left out of the GalleryMesh.
+    //The user can only walk between cells with floors that have no wall between them, so the cells they can reach are
+    //found by flooding out from the start position and each artwork's teleport and exit positions. The camera can be up to a cell
+    //away from those during a step or an art effect, and can be turned to face any way by an effect, so rays are cast
+    //all the way round from each reachable cell and each of its open neighbours.
+    //On a very large map that would take too long, so the cells that could be seen are found by a second flood instead,
+    //which spreads across every edge without a wall whether or not there is a floor beyond it. That includes everything
+    //the rays could reach, and more besides.
+    //Either way, the walls whose backs could be seen are noted too, for 'isBackSeen'.
+    int w = map.getWidth();
+    int cells = w * map.getHeight();
+    boolean[] reached = new boolean[cells];
+    int[] queue = new int[cells];
+    int queued = reach(map.startX, map.startY, reached, queue, 0);
+    for(Artwork aw: map.artworks)
+    {
+      queued = reach(aw.teleportX, aw.teleportY, reached, queue, queued);
+      queued = reach(aw.getExitX(), aw.getExitY(), reached, queue, queued);
+    }
+    for(int n = 0; n < queued; n++)
+    {
+      int x = queue[n] % w;
+      int y = queue[n] / w;
+      for(Direction d: Direction.values())
+      {
+        if (map.canStep(x, y, d)) queued = reach(x + d.getDX(), y + d.getDZ(), reached, queue, queued);
+      }
+    }
+    
+    boolean[] seen = new boolean[cells];
+    float fullCircleRays = TWO_PI * (map.getWidth() + map.getHeight()) * 2;
+    if (queued * 5 * fullCircleRays > MAX_SEEN_RAYS)
+    {
+      for(int n = 0; n < queued; n++)
+      {
+        int x = queue[n] % w;
+        int y = queue[n] / w;
+        seen[queue[n]] = true;
+        for(Direction d: Direction.values())
+        {
+          int nx = x + d.getDX();
+          int ny = y + d.getDZ();
+          if (map.isOpen(x, y, d)) queued = reach(nx, ny, reached, queue, queued);
+          else if (!map.closedAt(x, y, d) && contains(nx, ny) && map.closedAt(nx, ny, d.clockwise().clockwise()))
+          {
+            seen[ny * w + nx] = true;
+            backsSeen[ny * w + nx] |= 1 << d.clockwise().clockwise().ordinal();
+          }
+        }
+      }
+      return seen;
+    }
+    
+    for(int n = 0; n < queued; n++)
+    {
+      int x = queue[n] % w;
+      int y = queue[n] / w;
+      castArc(x, y, 0, PI);
+      for(Direction d: Direction.values())
+      {
+        if (map.isOpen(x, y, d) && !reached[queue[n] + d.getDZ() * w + d.getDX()])
+        {
+          castArc(x + d.getDX(), y + d.getDZ(), 0, PI);
+        }
+      }
+    }
+    for(int n = 0; n < rayCount; n++)
+    {
+      seen[rayCells[n]] = true;
+      rayHit[rayCells[n]] = false;
+    }
+    rayCount = 0;
+    return seen;
+  }
+  
+  private int reach(int x, int y, boolean[] reached, int[] queue, int queued)
+  {
+    //Adds a cell to the queue for the flood, unless it has been reached already.
+    if (!contains(x, y)) return queued;
+    int cell = y * map.getWidth() + x;
+    if (reached[cell]) return queued;
+    reached[cell] = true;
+    queue[queued] = cell;
+    return queued + 1;
+  }
+  
+  private void castRay(int x, int y, float rx, float ry)
+  {
+    //Steps from cell to cell along the ray, always crossing whichever cell edge the ray reaches first.
+    int stepX = rx > 0 ? 1 : -1;
+    int stepY = ry > 0 ? 1 : -1;
+    float deltaX = rx == 0 ? Float.MAX_VALUE : abs(1 / rx);
+    float deltaY = ry == 0 ? Float.MAX_VALUE : abs(1 / ry);
+    float nextX = deltaX / 2; //The ray starts in the middle of the cell.
+    float nextY = deltaY / 2;
+    Direction edgeX = stepX > 0 ? Direction.EAST : Direction.WEST;
+    Direction edgeY = stepY > 0 ? Direction.SOUTH : Direction.NORTH;
+    
+    while (true)
+    {
+      rayHit(x, y);
+      
+      if (nextX < nextY)
+      {
+        if (blocked(x, y, edgeX)) return;
+        x += stepX;
+        nextX += deltaX;
+      }
+      else
+      {
+        if (blocked(x, y, edgeY)) return;
+        y += stepY;
+        nextY += deltaY;
+      }
+      if (!contains(x, y)) return;
+    }
+  }
+  
+  private void rayHit(int x, int y)
+  {
+    int cell = y * map.getWidth() + x;
+    if (!rayHit[cell])
+    {
+      rayHit[cell] = true;
+      rayCells[rayCount++] = cell;
+    }
+  }
+  
+  private boolean blocked(int x, int y, Direction d)
+  {
+    //A wall can be recorded on the cell at either side of an edge. If it belongs to the cell beyond, the back of it can be
+    //seen, so that cell has to be drawn too. The artworks' images block the view in the same way.
+    if (map.closedAt(x, y, d)) return true;
+    int nx = x + d.getDX();
+    int ny = y + d.getDZ();
+    Direction back = d.clockwise().clockwise();
+    if (contains(nx, ny) && map.closedAt(nx, ny, back))
+    {
+      rayHit(nx, ny);
+      backsSeen[ny * map.getWidth() + nx] |= 1 << back.ordinal();
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,23 @@
+//Fragment shader for the animated circles on the floors marking the artworks. See CircleShader.pde.
+
+#ifdef GL_ES
+precision mediump float;
+precision mediump int;
+#endif
+
+#define PROCESSING_TEXTURE_SHADER
+
+uniform float ringPhase; //From 0 to 4, increasing as the ring grows outwards.
+
+varying vec2 circleCoord;
+
+const float RING_WIDTH = 0.05; //As a fraction of the tile's width.
+const float EDGE = 0.002; //The width of the ring's smoothed edges.
+
+void main()
+{
+  float inner = ringPhase * RING_WIDTH;
+  float d = distance(circleCoord, vec2(0.5));
+  float ring = smoothstep(inner - EDGE, inner, d) * (1.0 - smoothstep(inner + RING_WIDTH, inner + RING_WIDTH + EDGE, d));
+  gl_FragColor = vec4(vec3(ring), 1.0);
+}
@@ -0,0 +1,19 @@
+//Vertex shader for the animated circles on the floors marking the artworks. See CircleShader.pde.
+
+#define PROCESSING_TEXTURE_SHADER
+
+uniform mat4 transformMatrix;
+
+attribute vec4 position;
+attribute vec2 texCoord;
+
+varying vec2 circleCoord;
+
+void main()
+{
+  gl_Position = transformMatrix * position;
+  
+  //The texture coordinates run from 0 to 1 across the floor tile. They are used as they are, rather than for looking up a
+  //texture, so Processing's texture matrix isn't applied.
+  circleCoord = texCoord;
+}